@@ -0,0 +1,123 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.*;
+
+/**
+ * Generates the synthetic images the benchmarks run on, so they don't depend on the
+ * standard images or any photos being present. Everything is seeded, so every run sees
+ * the same images.
+ */
+final class BenchmarkFixtures {
+    private static final long SEED = 42;
+
+    private BenchmarkFixtures() {
+    }
+
+    static void loadOpenCV() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    /**
+     *
+     * @param index index of the tile, each index gets a different face
+     * @return a synthetic tile face, the same size as a standardized reference image
+     */
+    static Mat referenceTile(int index) {
+        Random random = new Random(SEED + index);
+        Mat tile = new Mat(Utils.REF_FIT_HEIGHT, Utils.REF_FIT_WIDTH, CvType.CV_8UC3, new Scalar(225, 235, 235));
+        Imgproc.rectangle(tile, new Point(4, 4), new Point(Utils.REF_FIT_WIDTH - 5, Utils.REF_FIT_HEIGHT - 5),
+                new Scalar(60, 60, 60), 3);
+        Imgproc.putText(tile, Integer.toString(index), new Point(40, 200), Imgproc.FONT_HERSHEY_SIMPLEX, 4,
+                color(random), 8);
+        for (int i = 0; i < 6; i++) {
+            Imgproc.circle(tile, new Point(30 + random.nextInt(180), 30 + random.nextInt(260)),
+                    8 + random.nextInt(20), color(random), random.nextBoolean() ? -1 : 3);
+            Imgproc.line(tile, new Point(20 + random.nextInt(200), 20 + random.nextInt(280)),
+                    new Point(20 + random.nextInt(200), 20 + random.nextInt(280)), color(random), 4);
+        }
+        return tile;
+    }
+
+    /**
+     *
+     * @return map from name to reference image, for count different tiles
+     */
+    static Map<String, Mat> references(int count) {
+        var references = new LinkedHashMap<String, Mat>();
+        for (int i = 0; i < count; i++) {
+            references.put("tile" + i, referenceTile(i));
+        }
+        return references;
+    }
+
+    /**
+     *
+     * @param reference reference image to crop
+     * @param scale scale of the crop relative to the reference
+     * @param angle rotation of the crop in degrees, like a tile that isn't quite straight
+     * @return a meld whose image is the reference at the given scale and rotation
+     */
+    static MatBox meld(Mat reference, double scale, double angle) {
+        Mat transform = Imgproc.getRotationMatrix2D(new Point(reference.width() / 2.0, reference.height() / 2.0), angle, scale);
+        Size size = new Size(Math.round(reference.width() * scale), Math.round(reference.height() * scale));
+        //move the scaled image back to the origin
+        transform.put(0, 2, transform.get(0, 2)[0] - (reference.width() - size.width) / 2.0);
+        transform.put(1, 2, transform.get(1, 2)[0] - (reference.height() - size.height) / 2.0);
+        Mat image = new Mat();
+        Imgproc.warpAffine(reference, image, transform, size, Imgproc.INTER_LINEAR, Core.BORDER_REPLICATE);
+        return new MatBox(new Rect(0, 0, image.width(), image.height()), image);
+    }
+
+    /**
+     *
+     * @param width width of the photo, the height is 9/16 of that
+     * @param tileCount number of tiles on the table, laid out in rows of 3 tile melds
+     * @return a photo of tiles on a table
+     */
+    static Mat table(int width, int tileCount) {
+        int height = width * 9 / 16;
+        Mat table = new Mat(height, width, CvType.CV_8UC3, new Scalar(40, 110, 30));
+        int tileWidth = Math.max(8, width / 40);
+        int tileHeight = tileWidth * 4 / 3;
+        int x = tileWidth;
+        int y = tileWidth;
+        for (int i = 0; i < tileCount && y + tileHeight < height; i++) {
+            Mat tile = new Mat();
+            Imgproc.resize(referenceTile(i % 34), tile, new Size(tileWidth, tileHeight));
+            tile.copyTo(table.submat(new Rect(x, y, tileWidth, tileHeight)));
+            //small gap between tiles of the same meld, large gap between melds
+            x += tileWidth + (i % 3 == 2 ? tileWidth : 1);
+            if (x + tileWidth >= width) {
+                x = tileWidth;
+                y += tileHeight + tileWidth;
+            }
+        }
+        return table;
+    }
+
+    /**
+     *
+     * @return count boxes scattered over a 1920x1080 frame, roughly clustered like tiles in melds
+     */
+    static List<Box> boxes(int count) {
+        Random random = new Random(SEED);
+        List<Box> boxes = new ArrayList<>();
+        while (boxes.size() < count) {
+            int clusterX = random.nextInt(1800);
+            int clusterY = random.nextInt(1000);
+            int clusterSize = 1 + random.nextInt(4);
+            for (int i = 0; i < clusterSize && boxes.size() < count; i++) {
+                boxes.add(new Box(new Rect(clusterX + i * (30 + random.nextInt(20)), clusterY + random.nextInt(6),
+                        20 + random.nextInt(20), 30 + random.nextInt(20))));
+            }
+        }
+        return boxes;
+    }
+
+    private static Scalar color(Random random) {
+        return new Scalar(random.nextInt(200), random.nextInt(200), random.nextInt(200));
+    }
+}
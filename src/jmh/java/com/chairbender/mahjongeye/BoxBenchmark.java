@@ -0,0 +1,64 @@
+package com.chairbender.mahjongeye;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Melding of the boxes bounding each contour
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BoxBenchmark {
+    private static final int DISTANCE_PAIRS = 1024;
+
+    @Param({"50", "200", "800"})
+    public int boxCount;
+
+    private List<Box> boxes;
+    private BoxBuffer buffer;
+    private BoxBuffer melds;
+
+    @Setup
+    public void setup() {
+        boxes = BenchmarkFixtures.boxes(boxCount);
+        buffer = BoxBuffer.of(boxes);
+        melds = new BoxBuffer(boxCount);
+    }
+
+    @Benchmark
+    public MeldResult meldAdjacent() {
+        return Box.meldAdjacent(boxes, 12);
+    }
+
+    @Benchmark
+    public int meldAdjacentBuffer() {
+        buffer.meldAdjacent(12, melds);
+        return melds.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DISTANCE_PAIRS)
+    public double shortestDistance() {
+        double total = 0;
+        for (int i = 0; i < DISTANCE_PAIRS; i++) {
+            total += boxes.get(i % boxCount).shortestDistance(boxes.get((i * 7 + 1) % boxCount));
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DISTANCE_PAIRS)
+    public double shortestDistanceBuffer() {
+        double total = 0;
+        for (int i = 0; i < DISTANCE_PAIRS; i++) {
+            total += buffer.shortestDistance(i % boxCount, (i * 7 + 1) % boxCount);
+        }
+        return total;
+    }
+}
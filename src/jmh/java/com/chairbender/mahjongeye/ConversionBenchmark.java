@@ -0,0 +1,50 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversions between Mats and BufferedImages, and of Mats to the pixels displayed by FxImageSink
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConversionBenchmark {
+
+    @Param({"640", "1920"})
+    public int width;
+
+    private Mat mat;
+    private BufferedImage image;
+    private FxImageSink.Pixels pixels;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures.loadOpenCV();
+        mat = BenchmarkFixtures.table(width, 60);
+        image = Utils.mat2BufferedImage(mat);
+        pixels = new FxImageSink.Pixels();
+    }
+
+    @Benchmark
+    public BufferedImage mat2BufferedImage() throws Exception {
+        return Utils.mat2BufferedImage(mat);
+    }
+
+    @Benchmark
+    public Mat bufferedImage2StandardizedMat() throws Exception {
+        return Utils.bufferedImage2StandardizedMat(image, false);
+    }
+
+    @Benchmark
+    public FxImageSink.Pixels fxPixels() {
+        pixels.fill(mat);
+        return pixels;
+    }
+}
@@ -0,0 +1,79 @@
+package com.chairbender.mahjongeye;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feature extraction and matching of melds against the references
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IdentifierBenchmark {
+
+    @Param({"8", "34"})
+    public int referenceCount;
+
+    @Param({"1", "8"})
+    public int meldCount;
+
+    /**
+     * resolution of the melds relative to the references
+     */
+    @Param({"0.5", "1.0"})
+    public double meldScale;
+
+    private ForkJoinPool executor;
+    private Identifier identifier;
+    private List<MatBox> melds;
+    private MeldFeatures meldFeatures;
+    private ReferenceFeatures reference;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures.loadOpenCV();
+        MahjongEyeConfig config = new MahjongEyeConfig();
+        executor = new ForkJoinPool(config.getIdentifyThreads());
+        Map<String, Mat> references = BenchmarkFixtures.references(referenceCount);
+        identifier = new Identifier(config, executor, new PipelineMetrics(new SimpleMeterRegistry()),
+                Identifier.defaultFeatureSettings(), references);
+
+        melds = new ArrayList<>();
+        var images = new ArrayList<>(references.values());
+        for (int i = 0; i < meldCount; i++) {
+            melds.add(BenchmarkFixtures.meld(images.get(i % images.size()), meldScale, 5));
+        }
+        meldFeatures = identifier.extractFeatures(melds.get(0));
+        reference = identifier.getReferences().iterator().next();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public Object extractFeatures() {
+        return identifier.extractFeatures(melds.get(0));
+    }
+
+    @Benchmark
+    public Object findInliers() {
+        return identifier.findInliers(meldFeatures, reference);
+    }
+
+    @Benchmark
+    public Object identifyMelds() {
+        return identifier.identifyMelds(melds);
+    }
+}
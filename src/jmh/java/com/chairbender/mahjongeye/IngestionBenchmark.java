@@ -0,0 +1,92 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingestion of captured frames into standardized Mats - the JPEG round-trip vs copying the raster
+ * (or the webcam's RGB bytes) directly
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IngestionBenchmark {
+
+    @Param({"640", "1920"})
+    public int width;
+
+    /**
+     * layout of the captured frame. WEBCAM_RGB is the byte interleaved RGB layout the default webcam
+     * driver produces.
+     */
+    @Param({"3BYTE_BGR", "INT_RGB", "WEBCAM_RGB"})
+    public String imageType;
+
+    private BufferedImage image;
+    private Mat rgb;
+    private FrameConverter converter;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures.loadOpenCV();
+        Mat mat = BenchmarkFixtures.table(width, 60);
+        BufferedImage bgrImage = new BufferedImage(mat.cols(), mat.rows(), BufferedImage.TYPE_3BYTE_BGR);
+        mat.get(0, 0, ((DataBufferByte) bgrImage.getRaster().getDataBuffer()).getData());
+        image = convert(bgrImage, imageType);
+
+        rgb = new Mat();
+        Imgproc.cvtColor(mat, rgb, Imgproc.COLOR_BGR2RGB);
+        converter = new FrameConverter();
+    }
+
+    private static BufferedImage convert(BufferedImage bgrImage, String imageType) {
+        BufferedImage converted;
+        switch (imageType) {
+            case "3BYTE_BGR":
+                return bgrImage;
+            case "INT_RGB":
+                converted = new BufferedImage(bgrImage.getWidth(), bgrImage.getHeight(), BufferedImage.TYPE_INT_RGB);
+                break;
+            case "WEBCAM_RGB":
+                var colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                        false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+                var raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, bgrImage.getWidth(),
+                        bgrImage.getHeight(), bgrImage.getWidth() * 3, 3, new int[]{0, 1, 2}, null);
+                converted = new BufferedImage(colorModel, raster, false, null);
+                break;
+            default:
+                throw new IllegalArgumentException(imageType);
+        }
+        var graphics = converted.createGraphics();
+        graphics.drawImage(bgrImage, 0, 0, null);
+        graphics.dispose();
+        return converted;
+    }
+
+    @Benchmark
+    public Mat jpeg() throws Exception {
+        return Utils.bufferedImage2StandardizedMat(image, false);
+    }
+
+    @Benchmark
+    public Mat raster() {
+        return Utils.standardize(converter.toMat(image), false);
+    }
+
+    /**
+     * the path taken when the webcam driver can write its RGB bytes straight into a buffer
+     */
+    @Benchmark
+    public Mat webcamBytes() {
+        return Utils.standardize(converter.fromRgb(rgb), false);
+    }
+}
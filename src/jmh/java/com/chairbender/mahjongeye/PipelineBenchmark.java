@@ -0,0 +1,42 @@
+package com.chairbender.mahjongeye;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding and filtering the contours of a thresholded frame
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PipelineBenchmark {
+
+    @Param({"640", "1280", "1920"})
+    public int width;
+
+    @Param({"30", "120"})
+    public int tileCount;
+
+    private Pipeline pipeline;
+    private PipelineSettings settings;
+    private Mat thresholded;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures.loadOpenCV();
+        pipeline = new Pipeline(new PipelineMetrics(new SimpleMeterRegistry()), new MahjongEyeConfig());
+        settings = PipelineSettings.defaults();
+        thresholded = pipeline.threshold(pipeline.grayscale(BenchmarkFixtures.table(width, tileCount)));
+    }
+
+    @Benchmark
+    public Object contours() {
+        return pipeline.contours(thresholded, settings);
+    }
+}
@@ -0,0 +1,23 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Core;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+/**
+ * Headless entry point which compares the feature backends on a set of labeled meld images.
+ * See BackendBenchmarkRunner for the arguments it takes.
+ */
+public class BackendBenchmarkApplication {
+
+	public static void main(String[] args) {
+		// load the native OpenCV library
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		new SpringApplicationBuilder(MahjongeyeApplication.class)
+				.profiles("backend-benchmark")
+				.headless(true)
+				.web(WebApplicationType.NONE)
+				.run(args)
+				.close();
+	}
+}
@@ -0,0 +1,137 @@
+package com.chairbender.mahjongeye;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Identifies a labeled set of meld images with each feature backend, reporting how long each takes per meld and
+ * how many melds it identifies correctly, so the backend with the best trade-off can be picked.
+ *
+ * Arguments:
+ * <ul>
+ *     <li>--input=dir - directory of meld images, each inside a directory named after its tile (i.e. fixtures/1p/a.jpg) (required)</li>
+ *     <li>--backends=KAZE,ORB_LSH,... - backends to compare (defaults to all of them)</li>
+ *     <li>--runs=n - times each backend identifies the whole set, the fastest run is reported (defaults to 3)</li>
+ * </ul>
+ */
+@Component
+@Profile("backend-benchmark")
+public class BackendBenchmarkRunner implements ApplicationRunner {
+
+    @Autowired
+    private MahjongEyeConfig config;
+    @Autowired
+    private ExecutorService identificationExecutor;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!args.containsOption("input")) {
+            throw new IllegalArgumentException("--input=<directory of labeled meld images> is required");
+        }
+        Path input = Paths.get(option(args, "input", null));
+        int runs = Integer.parseInt(option(args, "runs", "3"));
+        String backendsOption = option(args, "backends", null);
+        List<FeatureBackend> backends = backendsOption == null ? Arrays.asList(FeatureBackend.values()) :
+                Arrays.stream(backendsOption.split(",")).map(String::trim).map(FeatureBackend::valueOf)
+                        .collect(Collectors.toList());
+
+        Map<MatBox, String> fixtures = loadFixtures(input);
+        if (fixtures.isEmpty()) {
+            throw new IllegalArgumentException("No labeled meld images in " + input);
+        }
+        List<MatBox> melds = new ArrayList<>(fixtures.keySet());
+
+        //each backend's references are computed from scratch, the index only holds the configured backend's
+        MahjongEyeConfig benchmarkConfig = new MahjongEyeConfig();
+        benchmarkConfig.setStandardDir(config.getStandardDir());
+        benchmarkConfig.setMatchingMode(config.getMatchingMode());
+        benchmarkConfig.setGlobalCandidates(config.getGlobalCandidates());
+        benchmarkConfig.setFeatureWorkers(config.getFeatureWorkers());
+        benchmarkConfig.setPrefilterCandidates(config.getPrefilterCandidates());
+        benchmarkConfig.setPrefilterFeatures(config.getPrefilterFeatures());
+        //every meld is scored against the expected label anyway
+        benchmarkConfig.setPrefilterAuditEvery(0);
+
+        System.out.println(String.format("%d melds, %d runs, %d identify threads, %s matching", melds.size(), runs,
+                config.getIdentifyThreads(), config.getMatchingMode()));
+        System.out.println(String.format("%-14s %12s %10s %10s %12s", "backend", "references", "ms/meld", "accuracy",
+                "unidentified"));
+        for (FeatureBackend backend : backends) {
+            long start = System.nanoTime();
+            Identifier identifier = new Identifier(benchmarkConfig, identificationExecutor,
+                    new PipelineMetrics(new SimpleMeterRegistry()), Identifier.featureSettings(backend));
+            long referenceMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            //warm up the detectors and matchers before timing
+            identifier.identifyMelds(melds.subList(0, 1));
+            long fastest = Long.MAX_VALUE;
+            Map<MatBox, MeldIdentification> identifications = null;
+            for (int run = 0; run < runs; run++) {
+                start = System.nanoTime();
+                identifications = identifier.identifyMelds(melds);
+                fastest = Math.min(fastest, System.nanoTime() - start);
+            }
+
+            int correct = 0;
+            int unidentified = 0;
+            for (MatBox meld : melds) {
+                MeldIdentification identification = identifications.get(meld);
+                if (identification == null || identification.label == null) {
+                    unidentified++;
+                } else if (identification.label.equals(fixtures.get(meld))) {
+                    correct++;
+                }
+            }
+            System.out.println(String.format("%-14s %9d ms %10.2f %9.1f%% %12d", backend, referenceMillis,
+                    fastest / 1e6 / melds.size(), 100.0 * correct / melds.size(), unidentified));
+        }
+    }
+
+    /**
+     *
+     * @return map from each meld image to its label, the name of the directory it's in
+     */
+    private static Map<MatBox, String> loadFixtures(Path input) throws IOException {
+        List<Path> images = Files.walk(input)
+                .filter(Files::isRegularFile)
+                .filter(p -> {
+                    String name = p.getFileName().toString().toLowerCase();
+                    return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png");
+                })
+                .sorted()
+                .collect(Collectors.toList());
+
+        var fixtures = new LinkedHashMap<MatBox, String>();
+        for (Path image : images) {
+            Mat mat = Imgcodecs.imread(image.toAbsolutePath().toString());
+            if (mat.empty()) {
+                System.out.println("Could not decode " + image);
+                continue;
+            }
+            MatBox meld = MatBox.fromImage(new Box(new Rect(0, 0, mat.width(), mat.height())), mat, 0, -1, fixtures.size());
+            fixtures.put(meld, image.getParent().getFileName().toString());
+        }
+        return fixtures;
+    }
+
+    private static String option(ApplicationArguments args, String name, String defaultValue) {
+        List<String> values = args.getOptionValues(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+}
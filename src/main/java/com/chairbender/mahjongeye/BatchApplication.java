@@ -0,0 +1,23 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Core;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+/**
+ * Headless entry point which runs the detection pipeline over a directory of images
+ * without starting JavaFX. See BatchRunner for the arguments it takes.
+ */
+public class BatchApplication {
+
+	public static void main(String[] args) {
+		// load the native OpenCV library
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		new SpringApplicationBuilder(MahjongeyeApplication.class)
+				.profiles("batch")
+				.headless(true)
+				.web(WebApplicationType.NONE)
+				.run(args)
+				.close();
+	}
+}
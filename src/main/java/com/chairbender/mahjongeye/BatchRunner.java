@@ -0,0 +1,164 @@
+package com.chairbender.mahjongeye;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the detection pipeline over every image in a directory, writing one JSON object per line
+ * for each image (in the order they finish) and reporting the throughput at the end.
+ *
+ * Arguments:
+ * <ul>
+ *     <li>--input=dir - directory of images to process (required)</li>
+ *     <li>--workers=n - number of images processed at once (defaults to the number of processors)</li>
+ *     <li>--output=file - file to write the results to (defaults to stdout)</li>
+ *     <li>--settings=file - properties file holding the pipeline settings (defaults to the bundled config.properties)</li>
+ * </ul>
+ */
+@Component
+@Profile("batch")
+public class BatchRunner implements ApplicationRunner {
+
+    @Autowired
+    private Pipeline pipeline;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!args.containsOption("input")) {
+            throw new IllegalArgumentException("--input=<directory of images> is required");
+        }
+        Path input = Paths.get(option(args, "input", null));
+        int workers = Integer.parseInt(option(args, "workers", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        String settingsFile = option(args, "settings", null);
+        PipelineSettings settings = settingsFile == null ? PipelineSettings.defaults() : PipelineSettings.load(Paths.get(settingsFile));
+        String outputFile = option(args, "output", null);
+
+        List<Path> images = Files.walk(input)
+                .filter(Files::isRegularFile)
+                .filter(p -> {
+                    String name = p.getFileName().toString().toLowerCase();
+                    return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png");
+                })
+                .collect(Collectors.toList());
+
+        try (OutputStream outputStream = outputFile == null ? null : Files.newOutputStream(Paths.get(outputFile))) {
+            PrintStream out = outputStream == null ? System.out : new PrintStream(outputStream, true);
+            AtomicInteger failed = new AtomicInteger();
+            long start = System.nanoTime();
+
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            for (Path image : images) {
+                executor.submit(() -> {
+                    try {
+                        String json = objectMapper.writeValueAsString(process(image, settings));
+                        synchronized (out) {
+                            out.println(json);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        System.err.println("Failed to process " + image + ": " + e);
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            out.flush();
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.println(String.format("Processed %d images (%d failed) in %.2f s with %d workers, %.2f images/s",
+                    images.size(), failed.get(), seconds, workers, images.size() / seconds));
+            System.err.println("Native memory by allocation site:");
+            MatArena.stats().values().forEach(site -> System.err.println("  " + site));
+        }
+    }
+
+    private Map<String, Object> process(Path image, PipelineSettings settings) throws IOException {
+        long start = System.nanoTime();
+        //nothing from the image is needed once its result is built, so release all of it
+        try (MatArena arena = new MatArena()) {
+            Mat decoded = arena.track("BatchRunner.process/decoded", Imgcodecs.imread(image.toAbsolutePath().toString()));
+            if (decoded.empty()) {
+                throw new IOException("could not decode image");
+            }
+            Mat rawImage = pipeline.prepareFrame(decoded);
+            if (rawImage != decoded) {
+                arena.track("BatchRunner.process/image", rawImage);
+            }
+            FrameResult frame = pipeline.process(rawImage, TraceEvents.nextFrameId(), settings);
+            frame.contours.forEach(contour -> arena.track("BatchRunner.process/contours", contour));
+            for (MeldIdentification identification : frame.identifications.values()) {
+                arena.track("BatchRunner.process/meldImages", identification.meld.getMat());
+                if (identification.features != null) {
+                    arena.track("BatchRunner.process/meldKeypoints", identification.features.keypoints);
+                    arena.track("BatchRunner.process/meldDescriptors", identification.features.descriptors);
+                }
+                for (MeldIdentification tile : identification.tiles) {
+                    arena.track("BatchRunner.process/tileImages", tile.meld.getMat());
+                    if (tile.features != null) {
+                        arena.track("BatchRunner.process/tileKeypoints", tile.features.keypoints);
+                        arena.track("BatchRunner.process/tileDescriptors", tile.features.descriptors);
+                    }
+                }
+            }
+            return result(image, rawImage, frame, start);
+        }
+    }
+
+    private Map<String, Object> result(Path image, Mat rawImage, FrameResult frame, long start) {
+
+        var melds = new ArrayList<Map<String, Object>>();
+        for (MeldIdentification identification : frame.identifications.values()) {
+            var meld = identificationResult(identification);
+            if (!identification.tiles.isEmpty()) {
+                meld.put("tiles", identification.tiles.stream().map(this::identificationResult).collect(Collectors.toList()));
+            }
+            melds.add(meld);
+        }
+
+        var result = new LinkedHashMap<String, Object>();
+        result.put("image", image.toString());
+        result.put("width", rawImage.width());
+        result.put("height", rawImage.height());
+        result.put("contours", frame.contours.size());
+        result.put("melds", melds);
+        result.put("millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+
+    private Map<String, Object> identificationResult(MeldIdentification identification) {
+        var result = new LinkedHashMap<String, Object>();
+        result.put("x", identification.meld.startX);
+        result.put("y", identification.meld.startY);
+        result.put("width", identification.meld.rect.width);
+        result.put("height", identification.meld.rect.height);
+        result.put("label", identification.label);
+        result.put("inliers", identification.inlierCount);
+        return result;
+    }
+
+    private static String option(ApplicationArguments args, String name, String defaultValue) {
+        List<String> values = args.getOptionValues(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+}
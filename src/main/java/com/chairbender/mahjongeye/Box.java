@@ -7,9 +7,6 @@ import org.opencv.core.Rect;
 import org.opencv.imgproc.Imgproc;
 
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * Similar to Rect, but easier to work with (openCV Rect is a really
@@ -38,49 +35,60 @@ public class Box {
      */
     public final int endY;
 
+    protected Box(Rect rect) {
+        this.rect = rect;
+        this.startX = rect.x;
+        this.startY = rect.y;
+        this.endX = rect.x + rect.width;
+        this.endY = rect.y + rect.height;
+    }
+
+    //ranges and corners are made on demand rather than stored, since melds are turned into boxes on every frame
+
     /**
      * Range of the x region (startX -> endX)
      */
-    public final Range<Integer> xRange;
+    public Range<Integer> xRange() {
+        return Range.closed(startX, endX);
+    }
 
     /**
      * Range of the y region (startY -> endY)
      */
-    public final Range<Integer> yRange;
+    public Range<Integer> yRange() {
+        return Range.closed(startY, endY);
+    }
 
-    /**
-     * bottom left
-     */
-    public final Point tl;
-    /**
-     * bottom right
-     */
-    public final Point tr;
     /**
      * top left
      */
-    public final Point bl;
+    public Point tl() {
+        return new Point(startX, startY);
+    }
+
     /**
      * top right
      */
-    public final Point br;
+    public Point tr() {
+        return new Point(endX, startY);
+    }
 
-    public final Collection<Point> corners;
+    /**
+     * bottom left
+     */
+    public Point bl() {
+        return new Point(startX, endY);
+    }
 
+    /**
+     * bottom right
+     */
+    public Point br() {
+        return new Point(endX, endY);
+    }
 
-    protected Box(Rect rect) {
-        this.rect = rect;
-        this.startX = rect.x;
-        this.startY = rect.y;
-        this.endX = rect.x + rect.width;
-        this.endY = rect.y + rect.height;
-        this.xRange = Range.closed(startX, endX);
-        this.yRange = Range.closed(startY, endY);
-        this.tl = new Point(startX, startY);
-        this.tr = new Point(endX, startY);
-        this.bl = new Point(startX, endY);
-        this.br = new Point(endX, endY);
-        corners = Arrays.asList(tl, tr, bl, br);
+    public Collection<Point> corners() {
+        return Arrays.asList(tl(), tr(), bl(), br());
     }
 
     /**
@@ -91,63 +99,32 @@ public class Box {
         return new Box(Imgproc.boundingRect(contour));
     }
 
+    /**
+     * Boxes each contour in bulk, without allocating a Box per contour
+     *
+     * @param contours contours to bound
+     * @param boxes buffer to write the box bounding each contour to, in the same order.
+     *              Any previous contents are replaced.
+     */
+    public static void boundingContours(List<? extends Mat> contours, BoxBuffer boxes) {
+        boxes.setBoundingContours(contours);
+    }
+
     /**
      * Melds boxes in the collection which are within the threshold distance of each other.
-     * If 2 boxes are adjacent to each other, they will be didMeld together. If any other boxes
-     * are adjacent to those boxes, they will be didMeld into the set as well.
+     * If 2 boxes are adjacent to each other, they will be melded together. If any other boxes
+     * are adjacent to those boxes, they will be melded into the set as well.
      *
-     * Note that this only does one pass through the boxes. It may be possible that some of the final melds
-     * are close to each other but are not melded.
+     * Melding is repeated until no more melds are made, since the box enclosing a meld may be within the
+     * threshold of boxes which none of its members were.
      *
      * @param boxes boxes to meld
      * @param threshold threshold distance
      */
     public static MeldResult meldAdjacent(List<Box> boxes, double threshold) {
-        //create bounding boxes for each contour, with an ID for each rect
-        Map<Integer, Box> idToBox =
-                IntStream.range(0, boxes.size()).boxed()
-                        .collect(Collectors.toMap(Function.identity(), i -> boxes.get(i)));
-
-        //this map will hold the sets that each rect is a part of.
-        //Map from rect ID to the set of rect IDs that are part of that rect's set
-        Map<Integer, Set<Integer>> idToMeld =
-                IntStream.range(0, boxes.size()).boxed()
-                        //each set starts with the box as the only member
-                        .collect(Collectors.toMap(Function.identity(), i -> new HashSet<>(Collections.singleton(i))));
-
-        var melded = false;
-        for (var box1Entry : idToBox.entrySet()) {
-            for (var box2Entry : idToBox.entrySet()) {
-                var box1 = box1Entry.getValue();
-                var id1 = box1Entry.getKey();
-                var set1 = idToMeld.get(id1);
-                var box2 = box2Entry.getValue();
-                var id2 = box2Entry.getKey();
-
-                //skip if already in a set together
-                if (set1.contains(id2)) continue;
-
-                double distance = box1.shortestDistance(box2);
-                if (distance < threshold) {
-                    melded = true;
-                    //add to set
-                    set1.add(id2);
-                    //update all other sets of all members of the set, overwriting the set
-                    //with this box1's set.
-                    set1.forEach(id -> idToMeld.put(id, set1));
-                }
-            }
-        }
-
-        //get all the unique sets that were created
-        Collection<Collection<Box>> uniqueSets =
-                idToMeld.values().stream().distinct()
-                        .map(idset -> idset.stream().map(idToBox::get).collect(Collectors.toList()))
-                        .collect(Collectors.toList());
-
-        //create the boxes enclosing each set
-        var finalMelds = uniqueSets.stream().map(Box::meld).collect(Collectors.toList());
-        return new MeldResult(finalMelds, melded);
+        BoxBuffer melds = new BoxBuffer(boxes.size());
+        var melded = BoxBuffer.of(boxes).meldAdjacent(threshold, melds);
+        return new MeldResult(melded ? melds.toBoxes() : new ArrayList<>(boxes), melded);
     }
 
     /**
@@ -156,86 +133,21 @@ public class Box {
      * @return shortest distance between this and other, 0 if they overlap or contain each other
      */
     public double shortestDistance(Box other) {
-        if (overlap(other)) {
-            return 0;
-        }
-
-        //if the top or bottom edge of this box is between the yRange of the other (or vice versa),
-        //then the boxes are to the left / right of each other, so the
-        // shortest distance is the shortest distance between their left and right edges.
-        if (other.yRange.contains(this.startY) || other.yRange.contains(this.endY) ||
-            this.yRange.contains(other.startY) || this.yRange.contains(other.endY)) {
-            return Math.min(Math.abs(this.startX - other.endX), Math.abs(this.endX - other.startX));
-        }
-        //if the left or right edge of this box is between the xRange of the other (or vice versa),
-        //then the boxes are to the top / bottom of each other, so the
-        // shortest distance is the shortest distance between their top and bottom edges.
-        if (other.xRange.contains(this.startX) || other.xRange.contains(this.endX) ||
-                this.xRange.contains(other.startX) || this.xRange.contains(other.endX)) {
-            return Math.min(Math.abs(this.startY - other.endY), Math.abs(this.endY - other.startY));
-        }
-
-        //if their edges are not within range of each other, then they diagonally away from each other,
-        //so the shortest distance is the shortest distance between their closest corners
-        if (startX > other.endX) {
-            //this is to the right of other
-            if (startY > other.endY) {
-                //this is above and to the right of other
-                return euclid(tl, other.br);
-            } else {
-                //this is below and to the right of other
-                return euclid(bl, other.tr);
-            }
-        } else {
-            //this is to the left of other
-            if (startY > other.endY) {
-                //this is above and to the left of other
-                return euclid(tr, other.bl);
-            } else {
-                //this is below and to the left of other
-                return euclid(br, other.tl);
-            }
-        }
-    }
-
-    //opencv doesn't have a euclidian distance metric that is easy to use...sigh
-    private static double euclid(Point p1, Point p2) {
-        return Math.sqrt(Math.pow(p1.x - p2.x, 2) + Math.pow(p1.y - p2.y, 2));
+        return BoxBuffer.shortestDistance(startX, startY, endX, endY,
+                other.startX, other.startY, other.endX, other.endY);
     }
 
     /**
      *
      * @param other
-     * @return true iff other overlaps with this (including if either contains the other entirely)
-     */
-    private boolean overlap(Box other) {
-        //does this contains one of other's corners
-        if (other.corners.stream().anyMatch(rect::contains)) return true;
-
-        //does other contains one of this's corners
-        if (this.corners.stream().anyMatch(other.rect::contains)) return true;
-
-        //does this left edge intersect with other's top edge
-        if (this.yRange.contains(other.endY) && other.xRange.contains(this.startX)) return true;
-        //does this left edge intersect with other's bottom edge
-        if (this.yRange.contains(other.startY) && other.xRange.contains(this.startX)) return true;
-
-        //does this right edge intersect with other's top edge
-        if (this.yRange.contains(other.endY) && other.xRange.contains(this.endX)) return true;
-        //does this right edge intersect with other's bottom edge
-        if (this.yRange.contains(other.startY) && other.xRange.contains(this.endX)) return true;
-
-        //does this bottom edge intersect with other's right edge
-        if (this.xRange.contains(other.endX) && other.yRange.contains(this.startY)) return true;
-        //does this bottom edge intersect with other's left edge
-        if (this.xRange.contains(other.startX) && other.yRange.contains(this.startY)) return true;
-
-        //does this top edge intersect with other's right edge
-        if (this.xRange.contains(other.endX) && other.yRange.contains(this.endY)) return true;
-        //does this top edge intersect with other's left edge
-        if (this.xRange.contains(other.startX) && other.yRange.contains(this.endY)) return true;
-
-        return false;
+     * @return intersection over union of this and other - 1 if they are the same box, 0 if they don't overlap
+     */
+    public double iou(Box other) {
+        long intersectWidth = Math.max(0, Math.min(endX, other.endX) - Math.max(startX, other.startX));
+        long intersectHeight = Math.max(0, Math.min(endY, other.endY) - Math.max(startY, other.startY));
+        long intersection = intersectWidth * intersectHeight;
+        long union = (long) rect.width * rect.height + (long) other.rect.width * other.rect.height - intersection;
+        return union == 0 ? 0 : (double) intersection / union;
     }
 
     /**
@@ -252,6 +164,26 @@ public class Box {
         return new Box(new Rect(startX, startY, endX - startX, endY - startY));
     }
 
+    /**
+     *
+     * @param boxes
+     * @return a box minimally enclosing all of the boxes in the buffer
+     */
+    public static Box meld(BoxBuffer boxes) {
+        if (boxes.size() == 0) {
+            throw new NoSuchElementException("No boxes to meld");
+        }
+        int startX = Integer.MAX_VALUE, startY = Integer.MAX_VALUE, endX = Integer.MIN_VALUE, endY = Integer.MIN_VALUE;
+        for (int i = 0; i < boxes.size(); i++) {
+            startX = Math.min(startX, boxes.startX(i));
+            startY = Math.min(startY, boxes.startY(i));
+            endX = Math.max(endX, boxes.endX(i));
+            endY = Math.max(endY, boxes.endY(i));
+        }
+
+        return new Box(new Rect(startX, startY, endX - startX, endY - startY));
+    }
+
     public Point center() {
         return new Point(startX + rect.width / 2.0, startY + rect.height / 2.0);
     }
@@ -0,0 +1,424 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable buffer of boxes, stored as primitive arrays of their bounds rather than as Box objects. Lets
+ * large numbers of contours be boxed and melded without allocating per box - the buffer and the scratch
+ * space used for melding are reused between calls.
+ *
+ * The bounds of box i are startX(i) -> endX(i) and startY(i) -> endY(i), the same as in Box.
+ *
+ * Not thread safe.
+ */
+public class BoxBuffer {
+    private int[] startX;
+    private int[] startY;
+    private int[] endX;
+    private int[] endY;
+    private int size;
+
+    //scratch space for melding and bounding contours, grown as needed
+    private int[] parent = new int[0];
+    private int[] lastVisitor = new int[0];
+    private int[] cellStart = new int[0];
+    private int[] cellFill = new int[0];
+    private int[] cellItems = new int[0];
+    private int[] points = new int[0];
+
+    public BoxBuffer(int capacity) {
+        capacity = Math.max(1, capacity);
+        startX = new int[capacity];
+        startY = new int[capacity];
+        endX = new int[capacity];
+        endY = new int[capacity];
+    }
+
+    /**
+     *
+     * @return a buffer holding the bounds of each box, in the same order
+     */
+    public static BoxBuffer of(List<Box> boxes) {
+        BoxBuffer buffer = new BoxBuffer(boxes.size());
+        for (Box box : boxes) {
+            buffer.add(box.startX, box.startY, box.endX, box.endY);
+        }
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int startX(int i) {
+        return startX[i];
+    }
+
+    public int startY(int i) {
+        return startY[i];
+    }
+
+    public int endX(int i) {
+        return endX[i];
+    }
+
+    public int endY(int i) {
+        return endY[i];
+    }
+
+    /**
+     * Adds a box with the given bounds
+     *
+     * @return index of the added box
+     */
+    public int add(int startX, int startY, int endX, int endY) {
+        if (size == this.startX.length) {
+            int capacity = size * 2;
+            this.startX = Arrays.copyOf(this.startX, capacity);
+            this.startY = Arrays.copyOf(this.startY, capacity);
+            this.endX = Arrays.copyOf(this.endX, capacity);
+            this.endY = Arrays.copyOf(this.endY, capacity);
+        }
+        this.startX[size] = startX;
+        this.startY[size] = startY;
+        this.endX[size] = endX;
+        this.endY[size] = endY;
+        return size++;
+    }
+
+    /**
+     * Replaces the contents of this buffer with the boxes bounding each contour, in the same order.
+     * Equivalent to Imgproc.boundingRect, but reads the points into a reused array rather than allocating
+     * a Rect for each contour.
+     *
+     * @param contours contours of 32 bit integer points (i.e. MatOfPoint)
+     */
+    public void setBoundingContours(List<? extends Mat> contours) {
+        clear();
+        for (Mat contour : contours) {
+            int count = (int) contour.total() * contour.channels();
+            if (count == 0) {
+                add(0, 0, 0, 0);
+                continue;
+            }
+            if (points.length < count) {
+                points = new int[Math.max(count, points.length * 2)];
+            }
+            contour.get(0, 0, points);
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int k = 0; k < count; k += 2) {
+                minX = Math.min(minX, points[k]);
+                maxX = Math.max(maxX, points[k]);
+                minY = Math.min(minY, points[k + 1]);
+                maxY = Math.max(maxY, points[k + 1]);
+            }
+            //like boundingRect, the box includes the last pixel
+            add(minX, minY, maxX + 1, maxY + 1);
+        }
+    }
+
+    /**
+     * Replaces the contents of this buffer with the contents of other
+     */
+    public void copyFrom(BoxBuffer other) {
+        if (startX.length < other.size) {
+            startX = new int[other.size];
+            startY = new int[other.size];
+            endX = new int[other.size];
+            endY = new int[other.size];
+        }
+        System.arraycopy(other.startX, 0, startX, 0, other.size);
+        System.arraycopy(other.startY, 0, startY, 0, other.size);
+        System.arraycopy(other.endX, 0, endX, 0, other.size);
+        System.arraycopy(other.endY, 0, endY, 0, other.size);
+        size = other.size;
+    }
+
+    /**
+     *
+     * @return box i as a Box
+     */
+    public Box toBox(int i) {
+        return new Box(new Rect(startX[i], startY[i], endX[i] - startX[i], endY[i] - startY[i]));
+    }
+
+    /**
+     *
+     * @return every box in the buffer as a Box, in order
+     */
+    public List<Box> toBoxes() {
+        List<Box> boxes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            boxes.add(toBox(i));
+        }
+        return boxes;
+    }
+
+    /**
+     *
+     * @return shortest distance between box i and box j, 0 if they overlap or contain each other
+     */
+    public double shortestDistance(int i, int j) {
+        return shortestDistance(startX[i], startY[i], endX[i], endY[i], startX[j], startY[j], endX[j], endY[j]);
+    }
+
+    /**
+     * Melds boxes in this buffer which are within the threshold distance of each other, repeating until no more
+     * melds are made. See Box.meldAdjacent.
+     *
+     * @param threshold threshold distance
+     * @param melds buffer to write the melds to, in the order of their first member in this buffer.
+     *              Any previous contents are replaced.
+     * @return true iff any melding was performed
+     */
+    public boolean meldAdjacent(double threshold, BoxBuffer melds) {
+        melds.copyFrom(this);
+        var melded = false;
+        while (melds.meldPass(threshold)) {
+            melded = true;
+        }
+        return melded;
+    }
+
+    /**
+     * Does a single pass of melding in place - finds the groups of boxes that are connected by being within
+     * the threshold of each other and replaces each group with its meld.
+     *
+     * Boxes are bucketed into a uniform grid so only boxes in nearby cells are compared, and groups are
+     * tracked with a union-find over the box indexes.
+     *
+     * @return true iff any boxes were melded
+     */
+    private boolean meldPass(double threshold) {
+        int n = size;
+        if (n < 2 || !(threshold > 0)) {
+            //nothing can be within the threshold of anything else
+            return false;
+        }
+
+        //bounds of all the boxes, and the size of the average one
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        long totalSize = 0;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, startX[i]);
+            minY = Math.min(minY, startY[i]);
+            maxX = Math.max(maxX, endX[i]);
+            maxY = Math.max(maxY, endY[i]);
+            totalSize += Math.max(endX[i] - startX[i], endY[i] - startY[i]);
+        }
+
+        //cells are at least as big as the threshold and the average box, but not so small that
+        //there are many more cells than boxes
+        long width = (long) maxX - minX + 1, height = (long) maxY - minY + 1;
+        int cellSize = (int) Math.max(Math.max(Math.ceil(threshold), totalSize / n),
+                Math.ceil(Math.sqrt((double) width * height / (4.0 * n))));
+        cellSize = Math.max(1, cellSize);
+        int cols = (int) (width / cellSize) + 1;
+        int rows = (int) (height / cellSize) + 1;
+        int cells = cols * rows;
+
+        //bucket each box into every cell it covers, stored as the items of each cell laid out one
+        //cell after another
+        if (cellStart.length < cells + 1) {
+            cellStart = new int[cells + 1];
+            cellFill = new int[cells];
+        }
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+        for (int i = 0; i < n; i++) {
+            for (int cy = (startY[i] - minY) / cellSize; cy <= (endY[i] - minY) / cellSize; cy++) {
+                for (int cx = (startX[i] - minX) / cellSize; cx <= (endX[i] - minX) / cellSize; cx++) {
+                    cellStart[cy * cols + cx + 1]++;
+                }
+            }
+        }
+        for (int c = 1; c <= cells; c++) {
+            cellStart[c] += cellStart[c - 1];
+        }
+        if (cellItems.length < cellStart[cells]) {
+            cellItems = new int[Math.max(cellStart[cells], cellItems.length * 2)];
+        }
+        System.arraycopy(cellStart, 0, cellFill, 0, cells);
+        for (int i = 0; i < n; i++) {
+            for (int cy = (startY[i] - minY) / cellSize; cy <= (endY[i] - minY) / cellSize; cy++) {
+                for (int cx = (startX[i] - minX) / cellSize; cx <= (endX[i] - minX) / cellSize; cx++) {
+                    cellItems[cellFill[cy * cols + cx]++] = i;
+                }
+            }
+        }
+
+        if (parent.length < n) {
+            parent = new int[Math.max(n, parent.length * 2)];
+            lastVisitor = new int[parent.length];
+        }
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            lastVisitor[i] = 0;
+        }
+        //lastVisitor[j] == i + 1 if box j has already been compared to box i
+        int reach = (int) Math.ceil(threshold);
+        var melded = false;
+        for (int i = 0; i < n; i++) {
+            //the shortest distance is never less than the gap along either axis, so only the cells
+            //within the threshold of this box can hold boxes close enough to meld with it
+            int startCellX = Math.max(0, (startX[i] - reach - minX) / cellSize);
+            int endCellX = Math.min(cols - 1, (endX[i] + reach - minX) / cellSize);
+            int startCellY = Math.max(0, (startY[i] - reach - minY) / cellSize);
+            int endCellY = Math.min(rows - 1, (endY[i] + reach - minY) / cellSize);
+            for (int cy = startCellY; cy <= endCellY; cy++) {
+                for (int cx = startCellX; cx <= endCellX; cx++) {
+                    int cell = cy * cols + cx;
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                        int j = cellItems[k];
+                        //each pair only needs comparing once
+                        if (j <= i || lastVisitor[j] == i + 1) continue;
+                        lastVisitor[j] = i + 1;
+
+                        int rootI = find(i);
+                        int rootJ = find(j);
+                        //skip if already in a set together
+                        if (rootI == rootJ) continue;
+
+                        if (shortestDistance(i, j) < threshold) {
+                            //always keep the lowest index as the root, so melds stay in order
+                            parent[Math.max(rootI, rootJ)] = Math.min(rootI, rootJ);
+                            melded = true;
+                        }
+                    }
+                }
+            }
+        }
+        if (!melded) {
+            return false;
+        }
+
+        //grow each root's bounds to enclose its set. Roots always have a lower index than the
+        //rest of their set, so they can be updated in place.
+        for (int i = 0; i < n; i++) {
+            int root = find(i);
+            if (root != i) {
+                startX[root] = Math.min(startX[root], startX[i]);
+                startY[root] = Math.min(startY[root], startY[i]);
+                endX[root] = Math.max(endX[root], endX[i]);
+                endY[root] = Math.max(endY[root], endY[i]);
+            }
+        }
+        //then compact the roots to the front of the buffer, keeping their order
+        int meldCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (parent[i] == i) {
+                startX[meldCount] = startX[i];
+                startY[meldCount] = startY[i];
+                endX[meldCount] = endX[i];
+                endY[meldCount] = endY[i];
+                meldCount++;
+            }
+        }
+        size = meldCount;
+        return true;
+    }
+
+    //root of the set containing i, halving the path along the way
+    private int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Allocation free version of Box.shortestDistance, taking the bounds of each box
+     *
+     * @return shortest distance between box 1 and box 2, 0 if they overlap or contain each other
+     */
+    public static double shortestDistance(int startX1, int startY1, int endX1, int endY1,
+                                          int startX2, int startY2, int endX2, int endY2) {
+        if (overlap(startX1, startY1, endX1, endY1, startX2, startY2, endX2, endY2)) {
+            return 0;
+        }
+
+        //if the top or bottom edge of one box is between the y range of the other,
+        //then the boxes are to the left / right of each other, so the
+        // shortest distance is the shortest distance between their left and right edges.
+        if (within(startY1, startY2, endY2) || within(endY1, startY2, endY2) ||
+                within(startY2, startY1, endY1) || within(endY2, startY1, endY1)) {
+            return Math.min(Math.abs(startX1 - endX2), Math.abs(endX1 - startX2));
+        }
+        //if the left or right edge of one box is between the x range of the other,
+        //then the boxes are to the top / bottom of each other, so the
+        // shortest distance is the shortest distance between their top and bottom edges.
+        if (within(startX1, startX2, endX2) || within(endX1, startX2, endX2) ||
+                within(startX2, startX1, endX1) || within(endX2, startX1, endX1)) {
+            return Math.min(Math.abs(startY1 - endY2), Math.abs(endY1 - startY2));
+        }
+
+        //if their edges are not within range of each other, then they diagonally away from each other,
+        //so the shortest distance is the shortest distance between their closest corners
+        if (startX1 > endX2) {
+            if (startY1 > endY2) {
+                return euclid(startX1, startY1, endX2, endY2);
+            } else {
+                return euclid(startX1, endY1, endX2, startY2);
+            }
+        } else {
+            if (startY1 > endY2) {
+                return euclid(endX1, startY1, startX2, endY2);
+            } else {
+                return euclid(endX1, endY1, startX2, startY2);
+            }
+        }
+    }
+
+    /**
+     * Allocation free version of Box.overlap, taking the bounds of each box
+     *
+     * @return true iff box 2 overlaps with box 1 (including if either contains the other entirely)
+     */
+    public static boolean overlap(int startX1, int startY1, int endX1, int endY1,
+                                  int startX2, int startY2, int endX2, int endY2) {
+        //does box 1 contain one of box 2's corners
+        if (contains(startX1, startY1, endX1, endY1, startX2, startY2) ||
+                contains(startX1, startY1, endX1, endY1, endX2, startY2) ||
+                contains(startX1, startY1, endX1, endY1, startX2, endY2) ||
+                contains(startX1, startY1, endX1, endY1, endX2, endY2)) return true;
+
+        //does box 2 contain one of box 1's corners
+        if (contains(startX2, startY2, endX2, endY2, startX1, startY1) ||
+                contains(startX2, startY2, endX2, endY2, endX1, startY1) ||
+                contains(startX2, startY2, endX2, endY2, startX1, endY1) ||
+                contains(startX2, startY2, endX2, endY2, endX1, endY1)) return true;
+
+        //does a vertical edge of box 1 cross a horizontal edge of box 2
+        if ((within(endY2, startY1, endY1) || within(startY2, startY1, endY1)) &&
+                (within(startX1, startX2, endX2) || within(endX1, startX2, endX2))) return true;
+
+        //does a horizontal edge of box 1 cross a vertical edge of box 2
+        return (within(endX2, startX1, endX1) || within(startX2, startX1, endX1)) &&
+                (within(startY1, startY2, endY2) || within(endY1, startY2, endY2));
+    }
+
+    //like Rect.contains - the start of the box is included, the end is not
+    private static boolean contains(int startX, int startY, int endX, int endY, int x, int y) {
+        return startX <= x && x < endX && startY <= y && y < endY;
+    }
+
+    //value is in the closed range start -> end
+    private static boolean within(int value, int start, int end) {
+        return start <= value && value <= end;
+    }
+
+    private static double euclid(int x1, int y1, int x2, int y2) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,23 @@
+package com.chairbender.mahjongeye;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Application scoped executors
+ */
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * Executor that all identification work is scheduled on. Work stealing, so that when
+     * one meld's work finishes early its thread picks up work from the others.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService identificationExecutor(MahjongEyeConfig config) {
+        return new ForkJoinPool(config.getIdentifyThreads());
+    }
+}
@@ -0,0 +1,43 @@
+package com.chairbender.mahjongeye;
+
+/**
+ * The detector / descriptor and the matcher used to identify melds. KAZE's descriptors are floats, so they are
+ * matched with a FLANN KD-tree. The others have binary descriptors, which are matched by hamming distance,
+ * either approximately with a FLANN LSH index or exactly by brute force.
+ */
+public enum FeatureBackend {
+    KAZE(Detector.KAZE, Matcher.KD_TREE),
+    AKAZE_LSH(Detector.AKAZE, Matcher.LSH),
+    AKAZE_HAMMING(Detector.AKAZE, Matcher.BRUTE_FORCE_HAMMING),
+    ORB_LSH(Detector.ORB, Matcher.LSH),
+    ORB_HAMMING(Detector.ORB, Matcher.BRUTE_FORCE_HAMMING),
+    BRISK_LSH(Detector.BRISK, Matcher.LSH),
+    BRISK_HAMMING(Detector.BRISK, Matcher.BRUTE_FORCE_HAMMING);
+
+    public enum Detector {
+        KAZE, AKAZE, ORB, BRISK
+    }
+
+    public enum Matcher {
+        /**
+         * FLANN with randomized KD-trees, for float descriptors
+         */
+        KD_TREE,
+        /**
+         * FLANN with locality sensitive hashing, for binary descriptors
+         */
+        LSH,
+        /**
+         * Every descriptor compared against every other by hamming distance, for binary descriptors
+         */
+        BRUTE_FORCE_HAMMING
+    }
+
+    public final Detector detector;
+    public final Matcher matcher;
+
+    FeatureBackend(Detector detector, Matcher matcher) {
+        this.detector = detector;
+        this.matcher = matcher;
+    }
+}
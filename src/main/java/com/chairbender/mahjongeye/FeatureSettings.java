@@ -0,0 +1,134 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.features2d.AKAZE;
+import org.opencv.features2d.BRISK;
+import org.opencv.features2d.DescriptorMatcher;
+import org.opencv.features2d.Feature2D;
+import org.opencv.features2d.KAZE;
+import org.opencv.features2d.ORB;
+
+import java.nio.file.Path;
+
+/**
+ * Immutable description of how features are detected and matched. OpenCV detectors and matchers
+ * can't safely be shared between threads, so each worker creates its own from these settings.
+ */
+public final class FeatureSettings {
+    //BRISK's getters aren't exposed to java, so its (default) parameters are kept here
+    private static final int BRISK_THRESHOLD = 30;
+    private static final int BRISK_OCTAVES = 3;
+    private static final float BRISK_PATTERN_SCALE = 1.0f;
+
+    private final FeatureBackend backend;
+    //KAZE's parameters, unused by the other detectors
+    private final boolean extended;
+    private final boolean upright;
+    private final float threshold;
+    private final int octaves;
+    private final int octaveLayers;
+    private final int diffusivity;
+    /**
+     * yml file holding the flann index / search parameters, null if the matcher isn't flann based
+     */
+    private final String flannParams;
+
+    private FeatureSettings(FeatureBackend backend, boolean extended, boolean upright, float threshold, int octaves,
+                            int octaveLayers, int diffusivity, String flannParams) {
+        this.backend = backend;
+        this.extended = extended;
+        this.upright = upright;
+        this.threshold = threshold;
+        this.octaves = octaves;
+        this.octaveLayers = octaveLayers;
+        this.diffusivity = diffusivity;
+        this.flannParams = flannParams;
+    }
+
+    /**
+     *
+     * @param flannParams yml file holding the flann index / search parameters
+     * @return settings using opencv's default KAZE parameters
+     */
+    public static FeatureSettings kazeDefaults(Path flannParams) {
+        return defaults(FeatureBackend.KAZE, flannParams);
+    }
+
+    /**
+     *
+     * @param backend detector and matcher to use
+     * @param flannParams yml file holding the flann index / search parameters for the backend's matcher. Ignored
+     *                    (and may be null) if the matcher isn't flann based.
+     * @return settings using opencv's default parameters for the backend's detector
+     */
+    public static FeatureSettings defaults(FeatureBackend backend, Path flannParams) {
+        String flann = backend.matcher == FeatureBackend.Matcher.BRUTE_FORCE_HAMMING ? null
+                : flannParams.toAbsolutePath().toString();
+        //only KAZE's parameters are kept, the other detectors always use their defaults (so a KAZE detector isn't
+        //created just to read them)
+        if (backend.detector != FeatureBackend.Detector.KAZE) {
+            return new FeatureSettings(backend, false, false, 0, 0, 0, 0, flann);
+        }
+        KAZE defaults = KAZE.create();
+        return new FeatureSettings(backend, defaults.getExtended(), defaults.getUpright(), (float) defaults.getThreshold(),
+                defaults.getNOctaves(), defaults.getNOctaveLayers(), defaults.getDiffusivity(), flann);
+    }
+
+    public FeatureBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     *
+     * @return a new detector, not shared with anything else
+     */
+    public Feature2D createDetector() {
+        switch (backend.detector) {
+            case AKAZE:
+                return AKAZE.create();
+            case ORB:
+                return ORB.create();
+            case BRISK:
+                return BRISK.create(BRISK_THRESHOLD, BRISK_OCTAVES, BRISK_PATTERN_SCALE);
+            default:
+                return KAZE.create(extended, upright, threshold, octaves, octaveLayers, diffusivity);
+        }
+    }
+
+    /**
+     *
+     * @return a new, untrained matcher, not shared with anything else
+     */
+    public DescriptorMatcher createMatcher() {
+        if (backend.matcher == FeatureBackend.Matcher.BRUTE_FORCE_HAMMING) {
+            return DescriptorMatcher.create(DescriptorMatcher.BRUTEFORCE_HAMMING);
+        }
+        DescriptorMatcher matcher = DescriptorMatcher.create(DescriptorMatcher.FLANNBASED);
+        matcher.read(flannParams);
+        return matcher;
+    }
+
+    /**
+     *
+     * @return key describing the parameters which affect the detected features
+     */
+    public String key() {
+        switch (backend.detector) {
+            case AKAZE:
+                AKAZE akaze = AKAZE.create();
+                return String.format("AKAZE(descriptorType=%d,descriptorSize=%d,descriptorChannels=%d,threshold=%s,octaves=%d,octaveLayers=%d,diffusivity=%d)",
+                        akaze.getDescriptorType(), akaze.getDescriptorSize(), akaze.getDescriptorChannels(),
+                        akaze.getThreshold(), akaze.getNOctaves(), akaze.getNOctaveLayers(), akaze.getDiffusivity());
+            case ORB:
+                ORB orb = ORB.create();
+                return String.format("ORB(features=%d,scaleFactor=%s,levels=%d,edgeThreshold=%d,firstLevel=%d,wtaK=%d,scoreType=%d,patchSize=%d,fastThreshold=%d)",
+                        orb.getMaxFeatures(), orb.getScaleFactor(), orb.getNLevels(), orb.getEdgeThreshold(),
+                        orb.getFirstLevel(), orb.getWTA_K(), orb.getScoreType(), orb.getPatchSize(), orb.getFastThreshold());
+            case BRISK:
+                return String.format("BRISK(threshold=%d,octaves=%d,patternScale=%s)",
+                        BRISK_THRESHOLD, BRISK_OCTAVES, BRISK_PATTERN_SCALE);
+            default:
+                return String.format("KAZE(extended=%b,upright=%b,threshold=%s,octaves=%d,octaveLayers=%d,diffusivity=%d)",
+                        extended, upright, threshold, octaves, octaveLayers, diffusivity);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.features2d.DescriptorMatcher;
+import org.opencv.features2d.Feature2D;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A detector and matchers owned by a single worker at a time. Matchers are trained lazily
+ * on first use and kept, so a worker only trains each one once.
+ *
+ * Not thread safe - borrow one from a FeatureWorkerPool for each task.
+ */
+public class FeatureWorker {
+    private final FeatureSettings settings;
+    private final Feature2D detector;
+    private final Map<ReferenceFeatures, DescriptorMatcher> referenceMatchers = new HashMap<>();
+    private DescriptorMatcher globalMatcher;
+    //detection always uses the whole image, so the (empty) mask is shared by every detection
+    private final Mat noMask = new Mat();
+
+    public FeatureWorker(FeatureSettings settings) {
+        this.settings = settings;
+        this.detector = settings.createDetector();
+    }
+
+    /**
+     * Detects keypoints in image and computes their descriptors
+     */
+    public void detectAndCompute(Mat image, MatOfKeyPoint keypoints, Mat descriptors) {
+        detector.detectAndCompute(image, noMask, keypoints, descriptors);
+    }
+
+    /**
+     *
+     * @param reference reference with at least one descriptor
+     * @return this worker's matcher trained on the reference's descriptors
+     */
+    public DescriptorMatcher matcherFor(ReferenceFeatures reference) {
+        return referenceMatchers.computeIfAbsent(reference, ref -> {
+            DescriptorMatcher matcher = settings.createMatcher();
+            matcher.add(Collections.singletonList(ref.descriptors));
+            matcher.train();
+            return matcher;
+        });
+    }
+
+    /**
+     *
+     * @param references references to train on, all with at least one descriptor. Must be the same
+     *                   references in the same order on every call, since the matcher is only trained once.
+     * @return this worker's matcher trained on the descriptors of all of the references, with the imgIdx of
+     * each match being the index of the matched reference in references
+     */
+    public DescriptorMatcher globalMatcher(List<ReferenceFeatures> references) {
+        if (globalMatcher == null) {
+            globalMatcher = settings.createMatcher();
+            globalMatcher.add(references.stream().map(reference -> reference.descriptors).collect(Collectors.toList()));
+            globalMatcher.train();
+        }
+        return globalMatcher;
+    }
+}
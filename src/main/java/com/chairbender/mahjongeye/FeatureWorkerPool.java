@@ -0,0 +1,55 @@
+package com.chairbender.mahjongeye;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Bounded pool of FeatureWorkers. Each worker is only ever used by one task at a time, and
+ * is created on demand from the shared settings, up to the size of the pool.
+ */
+public class FeatureWorkerPool {
+    private final FeatureSettings settings;
+    private final Semaphore available;
+    private final ConcurrentLinkedQueue<FeatureWorker> idle = new ConcurrentLinkedQueue<>();
+
+    /**
+     *
+     * @param settings settings to create workers from
+     * @param size maximum number of workers, tasks block while all of them are in use
+     */
+    public FeatureWorkerPool(FeatureSettings settings, int size) {
+        this.settings = settings;
+        this.available = new Semaphore(size);
+    }
+
+    /**
+     * Runs task with a worker borrowed from the pool, returning the worker once the task is done
+     *
+     * @return the result of task
+     */
+    public <T> T withWorker(Function<FeatureWorker, T> task) {
+        available.acquireUninterruptibly();
+        FeatureWorker worker = idle.poll();
+        if (worker == null) {
+            worker = new FeatureWorker(settings);
+        }
+        try {
+            return task.apply(worker);
+        } finally {
+            idle.offer(worker);
+            available.release();
+        }
+    }
+
+    /**
+     * Runs task with a worker borrowed from the pool, returning the worker once the task is done
+     */
+    public void useWorker(Consumer<FeatureWorker> task) {
+        withWorker(worker -> {
+            task.accept(worker);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,155 @@
+package com.chairbender.mahjongeye;
+
+import com.github.sarxos.webcam.Webcam;
+import com.github.sarxos.webcam.WebcamDevice;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgproc.Imgproc;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+/**
+ * Converts captured frames into BGR Mats by copying their pixels directly, rather than
+ * encoding and decoding them as JPEGs (which is slow and adds compression artifacts).
+ *
+ * The returned Mat is reused, so it is only valid until the next conversion - copy or standardize
+ * it before converting another frame. Not thread safe, use one converter per capture thread.
+ */
+public class FrameConverter {
+    //BGR result of the last conversion
+    private final Mat bgr = new Mat();
+    //the raster's pixels, before they are put into BGR order
+    private final Mat interleaved = new Mat();
+    //scratch for images which don't store their pixels as bytes
+    private byte[] pixelBytes = new byte[0];
+    private BufferedImage fallbackImage;
+
+    //direct buffer the webcam driver writes RGB bytes to, and a Mat wrapping it
+    private ByteBuffer webcamBuffer;
+    private Mat webcamMat;
+
+    /**
+     * Grabs the webcam's current frame. If the driver supports it, the frame's bytes are written straight
+     * into a direct buffer shared with a Mat, otherwise the frame is grabbed as a BufferedImage.
+     *
+     * @return the frame in BGR order, null if the webcam has no frame
+     */
+    public Mat grab(Webcam webcam) {
+        if (webcam.getDevice() instanceof WebcamDevice.BufferAccess) {
+            Dimension size = webcam.getViewSize();
+            int capacity = size.width * size.height * 3;
+            if (webcamBuffer == null || webcamBuffer.capacity() != capacity) {
+                webcamBuffer = ByteBuffer.allocateDirect(capacity);
+                webcamMat = new Mat(size.height, size.width, CvType.CV_8UC3, webcamBuffer);
+            }
+            webcamBuffer.clear();
+            webcam.getImageBytes(webcamBuffer);
+            return fromRgb(webcamMat);
+        }
+
+        BufferedImage image = webcam.getImage();
+        return image == null ? null : toMat(image);
+    }
+
+    /**
+     *
+     * @param rgb 3 channel image with its channels in RGB order
+     * @return the image in BGR order
+     */
+    Mat fromRgb(Mat rgb) {
+        Imgproc.cvtColor(rgb, bgr, Imgproc.COLOR_RGB2BGR);
+        return bgr;
+    }
+
+    /**
+     * Copies the image's raster into the BGR Mat.
+     *
+     * Byte interleaved RGB(A) images (such as TYPE_3BYTE_BGR and most webcam frames) and packed int images
+     * (TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_INT_BGR) are copied directly. Anything else is drawn into a BGR
+     * image first.
+     *
+     * @return the image in BGR order
+     */
+    public Mat toMat(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        boolean rgb = image.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_RGB;
+        //sub-images share their parent's buffer, so their pixels don't start at the beginning of it
+        boolean wholeBuffer = raster.getParent() == null
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+
+        if (rgb && wholeBuffer && raster.getDataBuffer() instanceof DataBufferByte
+                && sampleModel instanceof PixelInterleavedSampleModel) {
+            var interleavedModel = (PixelInterleavedSampleModel) sampleModel;
+            int pixelStride = interleavedModel.getPixelStride();
+            if (interleavedModel.getScanlineStride() == image.getWidth() * pixelStride
+                    && interleavedModel.getNumBands() >= 3 && pixelStride <= 4) {
+                return fromInterleaved(((DataBufferByte) raster.getDataBuffer()).getData(), image.getWidth(),
+                        image.getHeight(), pixelStride, interleavedModel.getBandOffsets());
+            }
+        }
+
+        if (rgb && wholeBuffer && raster.getDataBuffer() instanceof DataBufferInt
+                && sampleModel instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride() == image.getWidth()
+                && sampleModel.getNumBands() >= 3) {
+            int[] masks = ((SinglePixelPackedSampleModel) sampleModel).getBitMasks();
+            return fromPacked(((DataBufferInt) raster.getDataBuffer()).getData(), image.getWidth(), image.getHeight(),
+                    Integer.numberOfTrailingZeros(masks[0]), Integer.numberOfTrailingZeros(masks[1]),
+                    Integer.numberOfTrailingZeros(masks[2]));
+        }
+
+        //some other layout - let java2d convert it
+        if (fallbackImage == null || fallbackImage.getWidth() != image.getWidth()
+                || fallbackImage.getHeight() != image.getHeight()) {
+            fallbackImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        }
+        Graphics2D graphics = fallbackImage.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return toMat(fallbackImage);
+    }
+
+    //bandOffsets[i] is the offset of band i (R, G, B, A) within each pixel
+    private Mat fromInterleaved(byte[] data, int width, int height, int pixelStride, int[] bandOffsets) {
+        if (pixelStride == 3 && bandOffsets[0] == 2 && bandOffsets[1] == 1 && bandOffsets[2] == 0) {
+            //already BGR, copy it straight in
+            bgr.create(height, width, CvType.CV_8UC3);
+            bgr.put(0, 0, data);
+            return bgr;
+        }
+
+        interleaved.create(height, width, CvType.CV_8UC(pixelStride));
+        interleaved.put(0, 0, data);
+        bgr.create(height, width, CvType.CV_8UC3);
+        Core.mixChannels(Collections.singletonList(interleaved), Collections.singletonList(bgr),
+                new MatOfInt(bandOffsets[2], 0, bandOffsets[1], 1, bandOffsets[0], 2));
+        return bgr;
+    }
+
+    //redShift etc. are the bit offsets of each channel within a pixel
+    private Mat fromPacked(int[] data, int width, int height, int redShift, int greenShift, int blueShift) {
+        int size = width * height * 3;
+        if (pixelBytes.length < size) {
+            pixelBytes = new byte[size];
+        }
+        int p = 0;
+        for (int i = 0; i < width * height; i++) {
+            int pixel = data[i];
+            pixelBytes[p++] = (byte) (pixel >>> blueShift);
+            pixelBytes[p++] = (byte) (pixel >>> greenShift);
+            pixelBytes[p++] = (byte) (pixel >>> redShift);
+        }
+        bgr.create(height, width, CvType.CV_8UC3);
+        //put only copies as many bytes as the Mat holds, so the scratch array can be bigger
+        bgr.put(0, 0, pixelBytes);
+        return bgr;
+    }
+}
@@ -0,0 +1,37 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simple POJO holding everything the pipeline calculated for a single frame
+ */
+public class FrameResult {
+    /**
+     * the (standardized) frame that was processed
+     */
+    public final Mat rawImage;
+    /**
+     * contours that passed the filters
+     */
+    public final List<MatOfPoint> contours;
+    /**
+     * melds of the contours
+     */
+    public final MeldResult melds;
+    /**
+     * identification of each meld
+     */
+    public final Map<MatBox, MeldIdentification> identifications;
+
+    public FrameResult(Mat rawImage, List<MatOfPoint> contours, MeldResult melds,
+                       Map<MatBox, MeldIdentification> identifications) {
+        this.rawImage = rawImage;
+        this.contours = contours;
+        this.melds = melds;
+        this.identifications = identifications;
+    }
+}
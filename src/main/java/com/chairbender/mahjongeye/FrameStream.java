@@ -0,0 +1,311 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a live stream of frames through capture, preprocess and identify stages, each on its own thread,
+ * so a slow identification doesn't hold up capturing and preprocessing the next frame.
+ *
+ * Stages are connected by slots which only hold the latest frame - if a stage is still busy when the next
+ * frame arrives, the frame it hasn't started on yet is dropped rather than queued, so latency never builds up.
+ * Capture is paced by how long the downstream stages are taking, so frames aren't captured just to be dropped.
+ *
+ * @param <P> result of preprocessing a frame, handed to the identify stage
+ */
+public class FrameStream<P> {
+    //weight of the latest frame in each stage's average latency
+    private static final double LATENCY_SMOOTHING = 0.2;
+    //longest stop waits for the stages to finish the frames they're working on
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * The work done by each stage
+     */
+    public interface Stages<P> {
+        /**
+         *
+         * @return the next frame, null if there isn't one
+         */
+        Mat capture();
+
+        /**
+         *
+         * @param frameId id the frame was given when it was captured, for tracing
+         * @return the frame's result to identify, null if the frame doesn't need identifying
+         */
+        P preprocess(Mat frame, long frameId);
+
+        void identify(P preprocessed);
+
+        /**
+         * Called instead of identify for a result replaced by a newer one before it was identified, so anything it
+         * holds can be released
+         */
+        default void dropped(P preprocessed) {
+        }
+    }
+
+    /**
+     * Latency and throughput of a single stage
+     */
+    public static class StageStats {
+        public final String name;
+        //frames waiting for the stage, null for capture
+        private final LatestSlot<?> input;
+        private volatile double latencyMillis;
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+
+        private StageStats(String name, LatestSlot<?> input) {
+            this.name = name;
+            this.input = input;
+        }
+
+        /**
+         *
+         * @return average time the stage takes on a frame, in ms. Weighted towards recent frames.
+         */
+        public double latencyMillis() {
+            return latencyMillis;
+        }
+
+        /**
+         *
+         * @return frames the stage has processed
+         */
+        public long frames() {
+            return frames.get();
+        }
+
+        /**
+         *
+         * @return frames which were replaced by a newer frame before the stage started on them
+         */
+        public long dropped() {
+            return dropped.get();
+        }
+
+        /**
+         *
+         * @return frames waiting for the stage to start on them (at most 1)
+         */
+        public int queued() {
+            return input == null ? 0 : input.size();
+        }
+
+        private void record(long startNanos) {
+            double millis = (System.nanoTime() - startNanos) / 1e6;
+            latencyMillis = frames.getAndIncrement() == 0 ? millis :
+                    LATENCY_SMOOTHING * millis + (1 - LATENCY_SMOOTHING) * latencyMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.0f ms (%d frames, %d dropped)", name, latencyMillis, frames(), dropped());
+        }
+    }
+
+    /**
+     * Holds only the latest item put into it
+     */
+    static class LatestSlot<T> {
+        private T item;
+
+        /**
+         *
+         * @return the item which was replaced, null if the slot was empty
+         */
+        synchronized T put(T item) {
+            T replaced = this.item;
+            this.item = item;
+            notifyAll();
+            return replaced;
+        }
+
+        /**
+         * Waits for an item and removes it from the slot
+         */
+        synchronized T take() throws InterruptedException {
+            while (item == null) {
+                wait();
+            }
+            T taken = item;
+            item = null;
+            return taken;
+        }
+
+        synchronized int size() {
+            return item == null ? 0 : 1;
+        }
+    }
+
+    //a frame along with its id
+    private static class CapturedFrame {
+        private final Mat frame;
+        private final long frameId;
+
+        private CapturedFrame(Mat frame, long frameId) {
+            this.frame = frame;
+            this.frameId = frameId;
+        }
+    }
+
+    private final Stages<P> stages;
+    private final long minCaptureIntervalMillis;
+    private final LatestSlot<CapturedFrame> toPreprocess = new LatestSlot<>();
+    private final LatestSlot<P> toIdentify = new LatestSlot<>();
+    private final StageStats captureStats = new StageStats("capture", null);
+    private final StageStats preprocessStats = new StageStats("preprocess", toPreprocess);
+    private final StageStats identifyStats = new StageStats("identify", toIdentify);
+    private final List<Thread> threads;
+    private volatile long captureIntervalMillis;
+
+    /**
+     *
+     * @param stages work done by each stage
+     * @param minCaptureIntervalMillis shortest time between captures, however fast the other stages are
+     */
+    public FrameStream(Stages<P> stages, long minCaptureIntervalMillis) {
+        this.stages = stages;
+        this.minCaptureIntervalMillis = minCaptureIntervalMillis;
+        this.captureIntervalMillis = minCaptureIntervalMillis;
+        threads = Arrays.asList(
+                stageThread("capture", this::captureLoop),
+                stageThread("preprocess", this::preprocessLoop),
+                stageThread("identify", this::identifyLoop));
+    }
+
+    private static Thread stageThread(String name, Runnable loop) {
+        Thread thread = new Thread(loop, "frame-stream-" + name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public void start() {
+        threads.forEach(Thread::start);
+    }
+
+    /**
+     * Stops every stage, waiting (up to STOP_TIMEOUT_MILLIS) for the frames they're working on to finish, since
+     * OpenCV calls can't be interrupted. A result still waiting to be identified is dropped.
+     *
+     * @return true if every stage stopped in time
+     */
+    public boolean stop() {
+        threads.forEach(Thread::interrupt);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MILLIS);
+        try {
+            for (Thread thread : threads) {
+                //join(0) would wait forever
+                thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                if (thread.isAlive()) {
+                    System.out.println("Warning: " + thread.getName() + " didn't stop within "
+                            + STOP_TIMEOUT_MILLIS + " ms");
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        P leftover = toIdentify.put(null);
+        if (leftover != null) {
+            stages.dropped(leftover);
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @return stats of the capture, preprocess and identify stages
+     */
+    public List<StageStats> stats() {
+        return Arrays.asList(captureStats, preprocessStats, identifyStats);
+    }
+
+    /**
+     *
+     * @return current time between captures, in ms
+     */
+    public long captureIntervalMillis() {
+        return captureIntervalMillis;
+    }
+
+    private void captureLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long start = System.nanoTime();
+                var captured = new TraceEvents.FrameCaptured();
+                captured.begin();
+                Mat frame = null;
+                try {
+                    frame = stages.capture();
+                } catch (RuntimeException e) {
+                    //keep streaming, the next capture may work
+                    e.printStackTrace();
+                }
+                if (frame != null) {
+                    captureStats.record(start);
+                    long frameId = TraceEvents.nextFrameId();
+                    captured.commit(frameId, frame);
+                    if (toPreprocess.put(new CapturedFrame(frame, frameId)) != null) {
+                        preprocessStats.dropped.incrementAndGet();
+                    }
+                }
+
+                //capturing faster than the slowest stage just means dropping frames, so wait for it
+                double bottleneck = Math.max(preprocessStats.latencyMillis, identifyStats.latencyMillis);
+                captureIntervalMillis = Math.max(minCaptureIntervalMillis,
+                        (long) (bottleneck - captureStats.latencyMillis));
+                Thread.sleep(captureIntervalMillis);
+            }
+        } catch (InterruptedException e) {
+            //stopped
+        }
+    }
+
+    private void preprocessLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                CapturedFrame captured = toPreprocess.take();
+                long start = System.nanoTime();
+                P preprocessed = null;
+                try {
+                    preprocessed = stages.preprocess(captured.frame, captured.frameId);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                preprocessStats.record(start);
+                P replaced = preprocessed == null ? null : toIdentify.put(preprocessed);
+                if (replaced != null) {
+                    identifyStats.dropped.incrementAndGet();
+                    stages.dropped(replaced);
+                }
+            }
+        } catch (InterruptedException e) {
+            //stopped
+        }
+    }
+
+    private void identifyLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                P preprocessed = toIdentify.take();
+                long start = System.nanoTime();
+                try {
+                    stages.identify(preprocessed);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                identifyStats.record(start);
+            }
+        } catch (InterruptedException e) {
+            //stopped
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.chairbender.mahjongeye;
+
+import javafx.application.Platform;
+import javafx.beans.property.ObjectProperty;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Displays Mats in a JavaFX image property, copying the pixels straight from the Mat rather than
+ * encoding and decoding them through a BufferedImage.
+ *
+ * Frames can be shown from any thread. Only the latest frame is ever posted to the FX thread - if frames
+ * arrive faster than the FX thread can draw them, the older ones are dropped. The pixel buffers and the
+ * (double-buffered) images are reused between frames, so nothing is allocated unless the frame size changes.
+ */
+public class FxImageSink {
+    private final ObjectProperty<Image> target;
+
+    //pixel buffers cycle from free -> filled by the caller -> pending -> drawn by the FX thread -> free
+    private final ConcurrentLinkedQueue<Pixels> free = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Pixels> pending = new AtomicReference<>();
+    private final AtomicBoolean drawScheduled = new AtomicBoolean();
+
+    //only touched on the FX thread. The image not currently displayed is drawn into, then swapped in.
+    private final WritableImage[] images = new WritableImage[2];
+    private int displayed = 0;
+
+    /**
+     *
+     * @param target property to display the frames in (i.e. ImageView.imageProperty())
+     */
+    public FxImageSink(ObjectProperty<Image> target) {
+        this.target = target;
+        //enough that the caller, the pending frame and the FX thread each have one
+        for (int i = 0; i < 3; i++) {
+            free.add(new Pixels());
+        }
+    }
+
+    /**
+     * Queues the frame to be displayed, replacing any frame which hasn't been displayed yet.
+     * The frame's pixels are copied before returning, so the caller is free to modify or release it.
+     *
+     * @param frame 8 bit grayscale, BGR or BGRA image
+     */
+    public void show(Mat frame) {
+        Pixels pixels = free.poll();
+        if (pixels == null) {
+            //only happens if several threads show frames at once
+            pixels = new Pixels();
+        }
+        pixels.fill(frame);
+
+        Pixels dropped = pending.getAndSet(pixels);
+        if (dropped != null) {
+            free.offer(dropped);
+        }
+        if (drawScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::draw);
+        }
+    }
+
+    //draws the latest pending frame, on the FX thread
+    private void draw() {
+        drawScheduled.set(false);
+        Pixels pixels = pending.getAndSet(null);
+        if (pixels == null) {
+            return;
+        }
+
+        int back = 1 - displayed;
+        WritableImage image = images[back];
+        if (image == null || (int) image.getWidth() != pixels.width || (int) image.getHeight() != pixels.height) {
+            image = new WritableImage(pixels.width, pixels.height);
+            images[back] = image;
+        }
+        pixels.buffer.rewind();
+        image.getPixelWriter().setPixels(0, 0, pixels.width, pixels.height,
+                PixelFormat.getByteBgraInstance(), pixels.buffer, pixels.width * 4);
+        free.offer(pixels);
+
+        displayed = back;
+        target.set(image);
+    }
+
+    /**
+     * BGRA pixels of a single frame
+     */
+    static class Pixels {
+        int width;
+        int height;
+        //reused between frames, only reallocated when the frame gets bigger
+        private final Mat bgra = new Mat();
+        private byte[] bytes = new byte[0];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        /**
+         * Copies the frame into this buffer, converting it to BGRA (JavaFX's native pixel format)
+         */
+        void fill(Mat frame) {
+            switch (frame.channels()) {
+                case 1:
+                    Imgproc.cvtColor(frame, bgra, Imgproc.COLOR_GRAY2BGRA);
+                    break;
+                case 3:
+                    Imgproc.cvtColor(frame, bgra, Imgproc.COLOR_BGR2BGRA);
+                    break;
+                case 4:
+                    frame.copyTo(bgra);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Can't display a Mat with " + frame.channels() + " channels");
+            }
+            if (bgra.depth() != CvType.CV_8U) {
+                throw new IllegalArgumentException("Can't display a Mat of type " + CvType.typeToString(frame.type()));
+            }
+
+            width = bgra.cols();
+            height = bgra.rows();
+            int size = width * height * 4;
+            if (bytes.length < size) {
+                bytes = new byte[size];
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            bgra.get(0, 0, bytes);
+        }
+    }
+}
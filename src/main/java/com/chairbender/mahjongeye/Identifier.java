@@ -1,5 +1,6 @@
 package com.chairbender.mahjongeye;
 
+import io.micrometer.core.instrument.Timer;
 import org.opencv.calib3d.Calib3d;
 import org.opencv.core.*;
 import org.opencv.features2d.*;
@@ -9,12 +10,17 @@ import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -89,36 +95,215 @@ public class Identifier {
 
     @Autowired
     private MahjongEyeConfig config;
+    //long lived, shared by all identifications
+    @Autowired
+    private ExecutorService identificationExecutor;
+    @Autowired
+    private PipelineMetrics metrics;
     private static final int MIN_MATCH_COUNT = 4;
+    //number of the latest identifications whose winners are remembered, to order references in BRANCH_AND_BOUND
+    private static final int RECENT_WINS_WINDOW = 100;
+    //TODO: Make configurable
+    private static final double LOWE_RATIO = 0.7;
+    //fraction of the inliers of the meld identified for it a similar meld must have with the same reference to share its label
+    private static final double DEDUP_RECHECK_INLIER_RATIO = 0.5;
+
+    //map from tile name to the reference image's precomputed features
+    private Map<String, ReferenceFeatures> nameToReference;
+    //references trained into each worker's global matcher, in the order they were added (so a match's imgIdx
+    //is the index of its reference in this list)
+    private List<ReferenceFeatures> globalReferences;
+    private final RecentWins recentWins = new RecentWins(RECENT_WINS_WINDOW);
+    //rules out references before matching in the PER_REFERENCE and BRANCH_AND_BOUND modes
+    private Prefilter prefilter;
+    //labels of melds which were already identified, by their perceptual hash. Null if disabled.
+    private LabelCache labelCache;
+    //timer of findInliers for each reference, by name
+    private Map<String, Timer> findInliersTimers;
+    //timer of splitting the melds of a frame into tiles
+    private Timer splitTimer;
+    private FeatureSettings featureSettings;
+    //detectors and matchers aren't thread safe, so each task borrows its own from here
+    private FeatureWorkerPool workers;
+
+    public HashMap<MatBox,Map<ReferenceFeatures,String>> relevantReferences;
+    //features extracted from each meld in the most recent identification
+    public Map<MatBox, MeldFeatures> meldFeatures;
+
+    public Identifier() {
+    }
 
-    //map from img file name to the image
-    private Map<String, Mat> nameToReferenceImage;
-    private DescriptorMatcher flannMatcher;
-    private KAZE kaze;
+    /**
+     * Creates an identifier outside of spring (i.e. for benchmarks), using references that are already
+     * standardized rather than loading them from the standard dir.
+     *
+     * @param nameToImage map from tile name to its standardized reference image
+     */
+    Identifier(MahjongEyeConfig config, ExecutorService identificationExecutor, PipelineMetrics metrics,
+               FeatureSettings featureSettings, Map<String, Mat> nameToImage) {
+        this.config = config;
+        this.identificationExecutor = identificationExecutor;
+        this.metrics = metrics;
+        this.featureSettings = featureSettings;
+        this.workers = new FeatureWorkerPool(featureSettings, config.getFeatureWorkers());
+        var references = new ArrayList<ReferenceFeatures>();
+        for (var imageEntry : nameToImage.entrySet()) {
+            MatOfKeyPoint keypoints = new MatOfKeyPoint();
+            Mat descriptors = new Mat();
+            workers.useWorker(worker -> worker.detectAndCompute(imageEntry.getValue(), keypoints, descriptors));
+            references.add(new ReferenceFeatures(imageEntry.getKey(), imageEntry.getValue(), keypoints, descriptors));
+        }
+        useReferences(references);
+    }
 
-    public HashMap<MatBox,Map<Mat,String>> relevantReferences;
+    /**
+     * Creates an identifier outside of spring (i.e. to compare feature backends), loading the references from
+     * config's standard dir
+     */
+    Identifier(MahjongEyeConfig config, ExecutorService identificationExecutor, PipelineMetrics metrics,
+               FeatureSettings featureSettings) throws IOException {
+        this.config = config;
+        this.identificationExecutor = identificationExecutor;
+        this.metrics = metrics;
+        this.featureSettings = featureSettings;
+        this.workers = new FeatureWorkerPool(featureSettings, config.getFeatureWorkers());
+        loadReferences();
+    }
 
     @PostConstruct
     private void init() throws IOException {
+        featureSettings = featureSettings(config.getFeatureBackend());
+        workers = new FeatureWorkerPool(featureSettings, config.getFeatureWorkers());
 
-        //generate the map
-        nameToReferenceImage = Files.walk(config.getStandardDir())
-                .filter(p -> p.getFileName().toString().endsWith(".jpg") &&
-                        //there's some weird file
-                        !p.getFileName().toString().contains("resized"))
-                .collect(Collectors.toMap(p -> fileNameToTileName(p.getFileName().toString()), p ->
-                        Utils.scaledImread(p.toAbsolutePath().toString(), true)));
+        loadReferences();
+    }
+
+    /**
+     *
+     * @return settings for the default KAZE detector with a FLANN KD-tree matcher
+     */
+    static FeatureSettings defaultFeatureSettings() throws IOException {
+        return featureSettings(FeatureBackend.KAZE);
+    }
+
+    /**
+     *
+     * @return settings for the backend, using the default parameters of its detector
+     */
+    static FeatureSettings featureSettings(FeatureBackend backend) throws IOException {
         //initialize matcher
         //TODO: Probably there's a more sophisticated approach for this, such as a NN
         //stupidly, the only way to configure the matcher is to feed it a yml file, lol
         //https://answers.opencv.org/question/12429/matching-orb-descriptors-with-flann-lsh-on-android/?answer=12460#post-id-12460
         //https://github.com/opencv/opencv_attic/blob/master/opencv/modules/java/android_test/src/org/opencv/test/features2d/FlannBasedDescriptorMatcherTest.java
-        flannMatcher = DescriptorMatcher.create(DescriptorMatcher.FLANNBASED);
         //write the config string to a file so it can be read in by flann matcher (lol)
         //TODO: Make this easier
-        Files.writeString(Paths.get("flann.yml"), flannKDTreeYML);
-        flannMatcher.read("flann.yml");
-        kaze = KAZE.create();
+        switch (backend.matcher) {
+            case KD_TREE:
+                Files.writeString(Paths.get("flann.yml"), flannKDTreeYML);
+                return FeatureSettings.defaults(backend, Paths.get("flann.yml"));
+            case LSH:
+                Files.writeString(Paths.get("flann-lsh.yml"), flannLSHYML);
+                return FeatureSettings.defaults(backend, Paths.get("flann-lsh.yml"));
+            default:
+                return FeatureSettings.defaults(backend, null);
+        }
+    }
+
+    /**
+     * Featurizes each reference once up front, rather than for every meld it is compared against.
+     * References whose file hasn't changed are loaded from the reference index rather than being
+     * decoded and featurized again.
+     */
+    private void loadReferences() throws IOException {
+        long start = System.nanoTime();
+        Path standardDir = config.getStandardDir();
+        Path indexFile = config.getReferenceIndex();
+        String indexKey = referenceIndexKey();
+
+        List<Path> referenceFiles = Files.walk(standardDir)
+                .filter(p -> p.getFileName().toString().endsWith(".jpg") &&
+                        //there's some weird file
+                        !p.getFileName().toString().contains("resized"))
+                .collect(Collectors.toList());
+
+        Map<String, ReferenceIndex.Entry> indexed = indexFile == null ? Collections.emptyMap() :
+                ReferenceIndex.load(indexFile, indexKey);
+        var entries = new LinkedHashMap<String, ReferenceIndex.Entry>();
+        int computed = 0;
+        for (Path referenceFile : referenceFiles) {
+            String key = standardDir.relativize(referenceFile).toString();
+            byte[] hash = ReferenceIndex.hash(referenceFile);
+            ReferenceIndex.Entry entry = indexed.get(key);
+            if (entry == null || !Arrays.equals(entry.hash, hash)) {
+                //new or changed since the index was built
+                entry = computeEntry(referenceFile, hash);
+                computed++;
+            }
+            entries.put(key, entry);
+        }
+
+        //rewrite the index if anything was added, changed or removed
+        if (indexFile != null && (computed > 0 || entries.size() != indexed.size())) {
+            try {
+                ReferenceIndex.write(indexFile, indexKey, entries);
+            } catch (IOException e) {
+                System.out.println("Could not write reference index " + indexFile + ": " + e);
+            }
+        }
+
+        useReferences(entries.values().stream()
+                .map(entry -> new ReferenceFeatures(entry.tileName, entry.image, entry.keypoints, entry.descriptors))
+                .collect(Collectors.toList()));
+
+        System.out.println(String.format("Loaded %d references (%d from index, %d computed) in %d ms, %s start",
+                entries.size(), entries.size() - computed, computed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), computed == 0 ? "warm" : "cold"));
+    }
+
+    private void useReferences(Collection<ReferenceFeatures> references) {
+        nameToReference = new HashMap<>();
+        findInliersTimers = new HashMap<>();
+        for (ReferenceFeatures reference : references) {
+            nameToReference.put(reference.name, reference);
+            findInliersTimers.put(reference.name, metrics.findInliers(reference.name));
+        }
+        globalReferences = nameToReference.values().stream()
+                .filter(reference -> !reference.descriptors.empty())
+                .collect(Collectors.toList());
+        prefilter = new Prefilter(nameToReference.values(), config.getPrefilterFeatures(),
+                config.getPrefilterCandidates(), config.getPrefilterAuditEvery());
+        if (config.getLabelCacheSize() > 0) {
+            labelCache = new LabelCache(config.getLabelCacheSize(), config.getLabelCacheTtl(), config.getLabelCacheRadius());
+            metrics.watch(labelCache);
+        }
+        splitTimer = metrics.stage("split");
+    }
+
+    private ReferenceIndex.Entry computeEntry(Path referenceFile, byte[] hash) {
+        Mat image = Utils.scaledImread(referenceFile.toAbsolutePath().toString(), true);
+        MatOfKeyPoint keypoints = new MatOfKeyPoint();
+        Mat descriptors = new Mat();
+        workers.useWorker(worker -> worker.detectAndCompute(image, keypoints, descriptors));
+        return new ReferenceIndex.Entry(fileNameToTileName(referenceFile.getFileName().toString()), hash,
+                image, keypoints, descriptors);
+    }
+
+    /**
+     *
+     * @return key describing everything that affects the indexed features, so a stale index isn't used
+     * after the detector or reference standardization changes
+     */
+    private String referenceIndexKey() {
+        return featureSettings.key() + String.format(";reference=%dx%d", Utils.REF_FIT_WIDTH, Utils.REF_FIT_HEIGHT);
+    }
+
+    /**
+     *
+     * @return the reference images (with their precomputed features) that melds are identified against
+     */
+    public Collection<ReferenceFeatures> getReferences() {
+        return nameToReference.values();
     }
 
     private String fileNameToTileName(String filename) {
@@ -155,160 +340,618 @@ public class Identifier {
 
     /**
      * Using the reference images, for each box, finds the reference image that has the most inliers and labels
-     * the box as such.
+     * the box as such. Also remembers the details of the identification (in relevantReferences and meldFeatures)
+     * so they can be displayed.
      *
      * @param melds melds to identify
      * @return a map from the box to the label detected for that box (based on the jpg file name it has
      * the most inliers with).
      */
-    public Map<MatBox, String> identify(List<MatBox> melds, int threads) {
+    public Map<MatBox, String> identify(List<MatBox> melds) {
+        long start = System.nanoTime();
+        var identifications = identifyMelds(melds);
+        metrics.recordIdentify(start);
+        return remember(identifications.values());
+    }
 
-        var executorService = Executors.newFixedThreadPool(threads);
+    /**
+     * Like identify, but uses the tracker to skip identifying melds which haven't changed since the last frame
+     *
+     * @param melds melds to identify
+     * @param tracker tracker of the melds in the previous frames of the same stream
+     * @return a map from the box to the label detected for that box
+     */
+    public Map<MatBox, String> identify(List<MatBox> melds, MeldTracker tracker) {
+        long start = System.nanoTime();
+        var identifications = tracker.identify(melds, this);
+        metrics.recordIdentify(start);
+        return remember(identifications.values());
+    }
 
+    //remembers the details of the identifications so they can be displayed
+    private Map<MatBox, String> remember(Collection<MeldIdentification> identifications) {
+        meldFeatures = new LinkedHashMap<>();
         relevantReferences = new HashMap<>();
         var result = new HashMap<MatBox, String>();
-        int i = 0;
+        for (MeldIdentification identification : identifications) {
+            meldFeatures.put(identification.meld, identification.features);
+
+            var referenceToLabel = new HashMap<ReferenceFeatures, String>();
+            for (var inliers : identification.referenceInliers.entrySet()) {
+                referenceToLabel.put(inliers.getKey(), inliers.getKey().name + "(" + inliers.getValue() + ")");
+            }
+            if (identification.label != null) {
+                result.put(identification.meld, identification.label);
+            }
+            //a split meld's best matches are those of its tiles
+            for (var best : identification.tiles.isEmpty() ? List.of(identification) : identification.tiles) {
+                if (best.label != null) {
+                    referenceToLabel.put(nameToReference.get(best.label), best.label + "(" + best.inlierCount + " Best Match)");
+                }
+            }
+
+            relevantReferences.put(identification.meld, referenceToLabel);
+        }
+
+        return result;
+    }
+
+    /**
+     * Using the reference images, for each box, finds the reference image that has the most inliers. Unlike
+     * identify, this doesn't remember the details for display, so it is safe to call concurrently.
+     *
+     * If splitTiles is enabled, melds of several tiles are first split into single tiles (see TileSplitter), and
+     * the tiles of every meld are identified together, each meld's identification being made up of its tiles'.
+     * The tiles' images are released once they are identified.
+     *
+     * Melds which look the same as a meld already identified (according to the label cache) get its label
+     * without any matching. Of the rest, melds which look the same as each other are only identified once (see
+     * MeldClusters). The features of every meld left are extracted once, then scored against the references. All
+     * of that work is scheduled on the identification executor at once, so melds and references are processed
+     * in parallel.
+     *
+     * @param melds melds to identify
+     * @return map from each meld to its identification, in the same order as melds. Melds whose
+     * identification failed (or the identification of any of whose tiles failed) are omitted.
+     */
+    public Map<MatBox, MeldIdentification> identifyMelds(List<MatBox> melds) {
+        if (!config.isSplitTiles()) {
+            return identifyCrops(melds);
+        }
+
+        //the tiles' images are only needed to identify them
+        var meldTiles = new LinkedHashMap<MatBox, List<MatBox>>();
+        Map<MatBox, MeldIdentification> cropIdentifications;
+        try (MatArena tileArena = new MatArena()) {
+            long start = System.nanoTime();
+            var crops = new ArrayList<MatBox>();
+            for (MatBox meld : melds) {
+                List<MatBox> tiles = TileSplitter.split(meld, tileArena);
+                meldTiles.put(meld, tiles);
+                crops.addAll(tiles);
+            }
+            splitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            //every tile of the frame is classified in one batch
+            cropIdentifications = identifyCrops(crops);
+        }
+        var result = new LinkedHashMap<MatBox, MeldIdentification>();
+        for (var meldEntry : meldTiles.entrySet()) {
+            MatBox meld = meldEntry.getKey();
+            List<MatBox> tiles = meldEntry.getValue();
+            if (tiles.size() == 1 && tiles.get(0) == meld) {
+                if (cropIdentifications.containsKey(meld)) {
+                    result.put(meld, cropIdentifications.get(meld));
+                }
+                continue;
+            }
+            var tileIdentifications = new ArrayList<MeldIdentification>();
+            for (MatBox tile : tiles) {
+                if (cropIdentifications.containsKey(tile)) {
+                    tileIdentifications.add(cropIdentifications.get(tile));
+                }
+            }
+            if (tileIdentifications.size() == tiles.size()) {
+                result.put(meld, MeldIdentification.ofTiles(meld, tileIdentifications));
+            }
+        }
+        return result;
+    }
+
+    //identifies each crop (a meld or a single tile) as a whole
+    private Map<MatBox, MeldIdentification> identifyCrops(List<MatBox> melds) {
+        var identifications = new HashMap<MatBox, MeldIdentification>();
+        var meldHashes = new HashMap<MatBox, long[]>();
+        List<MatBox> toMatch = melds;
+        if (labelCache != null) {
+            toMatch = new ArrayList<>();
+            for (MatBox meld : melds) {
+                long[] hashes = LabelCache.hashes(meld.getMat());
+                LabelCache.Entry entry = labelCache.get(hashes);
+                if (entry == null) {
+                    meldHashes.put(meld, hashes);
+                    toMatch.add(meld);
+                } else {
+                    ReferenceFeatures reference = nameToReference.get(entry.label);
+                    identifications.put(meld, new MeldIdentification(meld, null, entry.label, entry.inlierCount,
+                            reference == null ? Collections.emptyMap() : Collections.singletonMap(reference, entry.inlierCount)));
+                }
+            }
+        }
+
+        if (config.getDedupMaxDifference() > 0) {
+            identifications.putAll(matchClusters(MeldClusters.cluster(toMatch, config.getDedupMaxDifference()), meldHashes));
+        } else {
+            identifications.putAll(matchMelds(toMatch, meldHashes));
+        }
+
+        var result = new LinkedHashMap<MatBox, MeldIdentification>();
+        for (MatBox meld : melds) {
+            MeldIdentification identification = identifications.get(meld);
+            if (identification != null) {
+                result.put(meld, identification);
+            }
+        }
+        return result;
+    }
+
+    //identifies the representative of each cluster, then gives its label to the rest of the cluster. Members which
+    //aren't quite the same as their representative are checked against its label first.
+    private Map<MatBox, MeldIdentification> matchClusters(List<MeldClusters.Cluster> clusters, Map<MatBox, long[]> meldHashes) {
+        var identifications = matchMelds(clusters.stream().map(cluster -> cluster.representative)
+                .collect(Collectors.toList()), meldHashes);
+
+        int copied = 0;
+        var toRecheck = new LinkedHashMap<MatBox, String>();
+        var representativeInliers = new HashMap<MatBox, Long>();
+        var toSearch = new ArrayList<MatBox>();
+        for (var cluster : clusters) {
+            MeldIdentification representative = identifications.get(cluster.representative);
+            for (var member : cluster.members.entrySet()) {
+                MatBox meld = member.getKey();
+                if (representative == null) {
+                    //identifying the representative failed, so identify the others themselves
+                    toSearch.add(meld);
+                } else if (representative.label != null && member.getValue() > config.getDedupRecheckDifference()) {
+                    toRecheck.put(meld, representative.label);
+                    representativeInliers.put(meld, representative.inlierCount);
+                } else {
+                    identifications.put(meld, new MeldIdentification(meld, null, representative.label,
+                            representative.inlierCount, representative.referenceInliers));
+                    copied++;
+                }
+            }
+        }
+
+        for (var recheck : recheckMelds(toRecheck).values()) {
+            if (recheck.label != null && recheck.inlierCount >= representativeInliers.get(recheck.meld) * DEDUP_RECHECK_INLIER_RATIO) {
+                identifications.put(recheck.meld, recheck);
+            } else {
+                //not the same tile after all
+                toSearch.add(recheck.meld);
+            }
+        }
+        identifications.putAll(matchMelds(toSearch, meldHashes));
+
+        metrics.meldsDeduplicated(copied, toRecheck.size());
+        return identifications;
+    }
+
+    //finds the reference with the most inliers for each meld, remembering confident labels in the label cache
+    private Map<MatBox, MeldIdentification> matchMelds(List<MatBox> melds, Map<MatBox, long[]> meldHashes) {
+        //schedule all the work for every meld up front
+        var featureFutures = new LinkedHashMap<MatBox, CompletableFuture<MeldFeatures>>();
+        var meldToFuture = new LinkedHashMap<MatBox, CompletableFuture<List<InlierResult>>>();
         for (MatBox meld : melds) {
-            System.out.println("Comparing meld " + i++);
-            var futures = new LinkedList<Future<InlierResult>>();
-            //create futures to run our inlier method in parallel
-            for (Map.Entry<String, Mat> referenceEntry : nameToReferenceImage.entrySet()) {
-                futures.add(executorService.submit(() -> findInliers(meld, referenceEntry.getValue(), referenceEntry.getKey())));
+            var features = CompletableFuture.supplyAsync(() -> extractFeatures(meld), identificationExecutor);
+            featureFutures.put(meld, features);
+            meldToFuture.put(meld, features.thenCompose(this::scoreAsync));
+        }
+
+        var matched = new HashMap<MatBox, MeldIdentification>();
+        for (var meldEntry : meldToFuture.entrySet()) {
+            //await completion of the meld's work
+            List<InlierResult> inlierResults;
+            MeldFeatures features;
+            try {
+                inlierResults = meldEntry.getValue().join();
+                features = featureFutures.get(meldEntry.getKey()).join();
+            } catch (CompletionException | CancellationException e) {
+                e.printStackTrace();
+                continue;
             }
 
             //check the values returned by our parallel tasks
             long max = 0;
             InlierResult bestResult = null;
-            var referenceMatToLabel = new HashMap<Mat, String>();
-            for (var future : futures) {
-                //await completion of the future
-                InlierResult inliers = null;
-                try {
-                    inliers = future.get();
-                } catch (InterruptedException | ExecutionException e) {
-                    e.printStackTrace();
-                    continue;
-                }
-
+            var referenceInliers = new HashMap<ReferenceFeatures, Long>();
+            for (var inliers : inlierResults) {
                 if (inliers.inlierCount > max) {
                     bestResult = inliers;
                     max = bestResult.inlierCount;
                 }
                 if (inliers.inlierCount > 0) {
-                    referenceMatToLabel.put(nameToReferenceImage.get(inliers.referenceName), inliers.referenceName + "(" + inliers.inlierCount + ")");
+                    referenceInliers.put(nameToReference.get(inliers.referenceName), inliers.inlierCount);
                 }
             }
 
             if (bestResult != null) {
-                referenceMatToLabel.put(nameToReferenceImage.get(bestResult.referenceName), bestResult.referenceName + "(" + bestResult.inlierCount + " Best Match)");
-                result.put(bestResult.srcMeld, bestResult.referenceName);
+                recentWins.add(bestResult.referenceName);
+                if (labelCache != null && max >= config.getLabelCacheMinInliers()) {
+                    labelCache.put(meldHashes.get(meldEntry.getKey()), bestResult.referenceName, max);
+                }
             }
+            matched.put(meldEntry.getKey(), new MeldIdentification(meldEntry.getKey(), features,
+                    bestResult == null ? null : bestResult.referenceName, max, referenceInliers));
+        }
+        return matched;
+    }
 
-            relevantReferences.put(meld, referenceMatToLabel);
+    /**
+     * Checks each meld against only the reference it was last identified as, rather than every reference.
+     * Safe to call concurrently.
+     *
+     * @param meldToLabel map from each meld to the name of the reference to check it against
+     * @return map from each meld to its identification, in the same order as meldToLabel. The label is null
+     * if the meld doesn't match the reference anymore. Melds whose check failed are omitted.
+     */
+    public Map<MatBox, MeldIdentification> recheckMelds(Map<MatBox, String> meldToLabel) {
+        var meldToFuture = new LinkedHashMap<MatBox, CompletableFuture<MeldIdentification>>();
+        for (var labelEntry : meldToLabel.entrySet()) {
+            MatBox meld = labelEntry.getKey();
+            ReferenceFeatures reference = nameToReference.get(labelEntry.getValue());
+            if (reference == null) {
+                //no reference to check against, so don't bother extracting the features
+                meldToFuture.put(meld, CompletableFuture.completedFuture(
+                        new MeldIdentification(meld, null, null, 0, Collections.emptyMap())));
+                continue;
+            }
+            meldToFuture.put(meld, CompletableFuture.supplyAsync(() -> {
+                MeldFeatures features = extractFeatures(meld);
+                long inliers = findInliers(features, reference).inlierCount;
+                if (inliers == 0) {
+                    return new MeldIdentification(meld, features, null, 0, Collections.emptyMap());
+                }
+                return new MeldIdentification(meld, features, reference.name, inliers,
+                        Collections.singletonMap(reference, inliers));
+            }, identificationExecutor));
         }
 
+        var result = new LinkedHashMap<MatBox, MeldIdentification>();
+        for (var meldEntry : meldToFuture.entrySet()) {
+            try {
+                result.put(meldEntry.getKey(), meldEntry.getValue().join());
+            } catch (CompletionException | CancellationException e) {
+                e.printStackTrace();
+            }
+        }
         return result;
     }
 
     /**
-     * Uses KAZE to find inliers, returns the count of inliers
+     * Schedules the scoring of the meld's features against the references, according to the matching mode
      *
+     * @return future completing with the inliers of each reference that was checked
      */
-    private InlierResult findInliers(MatBox src, Mat reference, String referenceName) {
-        //based on this
-        //https://docs.opencv.org/3.4/d7/dff/tutorial_feature_homography.html
-        System.out.println("Comparing to " + referenceName);
+    private CompletableFuture<List<InlierResult>> scoreAsync(MeldFeatures features) {
+        if (config.getMatchingMode() == MatchingMode.GLOBAL) {
+            //vote for the candidate references, then only check the homography of the candidates
+            return CompletableFuture.supplyAsync(() -> voteForReferences(features), identificationExecutor)
+                    .thenCompose(candidates -> allOf(candidates.stream()
+                            .map(votes -> CompletableFuture.supplyAsync(
+                                    () -> countInliers(features, votes.reference, votes.matches), identificationExecutor))
+                            .collect(Collectors.toList())));
+        } else if (!prefilter.isEnabled()) {
+            return scoreReferences(features, nameToReference.values());
+        }
 
-        MatOfKeyPoint kpSrc = new MatOfKeyPoint();
-        Mat desSrc = new Mat();
-        kaze.detectAndCompute(src.getMat(), new Mat(), kpSrc, desSrc);
-        MatOfKeyPoint kpRef = new MatOfKeyPoint();
-        Mat desRef = new Mat();
-        kaze.detectAndCompute(reference, new Mat(), kpRef, desRef);
+        List<ReferenceFeatures> candidates = prefilter.candidates(features.meld.getMat());
+        if (!prefilter.shouldAudit()) {
+            return scoreReferences(features, candidates);
+        }
+        //check the references the prefilter removed as well, to see if one of them would have won
+        return scoreReferences(features, nameToReference.values()).thenApply(inlierResults -> {
+            InlierResult best = inlierResults.stream()
+                    .max(Comparator.comparingLong((InlierResult result) -> result.inlierCount)).orElse(null);
+            if (best != null && best.inlierCount > 0) {
+                metrics.prefilterAudited(candidates.contains(nameToReference.get(best.referenceName)));
+            }
+            return inlierResults;
+        });
+    }
 
-        //search for matches among the descriptors.
-        List<MatOfDMatch> matches = new ArrayList<>();
-        flannMatcher.knnMatch(desSrc, desRef, matches, 2);
+    /**
+     * Schedules the scoring of the meld's features against each of the references in parallel
+     */
+    private CompletableFuture<List<InlierResult>> scoreReferences(MeldFeatures features,
+                                                                  Collection<ReferenceFeatures> references) {
+        if (config.getMatchingMode() == MatchingMode.BRANCH_AND_BOUND) {
+            //the good matches bound the inliers, so they're found for every reference before any homography
+            return allOf(references.stream()
+                    .map(reference -> CompletableFuture.supplyAsync(() -> {
+                        long start = System.nanoTime();
+                        List<DMatch> goodMatches = findGoodMatches(features, reference);
+                        return new ReferenceVotes(reference, goodMatches, System.nanoTime() - start);
+                    }, identificationExecutor))
+                    .collect(Collectors.toList()))
+                    .thenApplyAsync(matches -> countLeadersInliers(features, matches), identificationExecutor);
+        }
+        return allOf(references.stream()
+                .map(reference -> CompletableFuture.supplyAsync(() -> findInliers(features, reference), identificationExecutor))
+                .collect(Collectors.toList()));
+    }
 
-        //find good matches using lowe's ratio test
-        List<DMatch> goodMatches = new ArrayList<>();
-        for (var matofmatch : matches) {
-            var matcharray = matofmatch.toArray();
-            if (matcharray.length < 2) continue;
-            var srcmatch = matcharray[0];
-            var refmatch = matcharray[1];
+    /**
+     * Counts the inliers of the references with the most good matches first, stopping once no other reference
+     * could have more inliers than the best so far
+     *
+     * @param matches good matches between src and each reference
+     * @return the inliers of each reference that was checked
+     */
+    private List<InlierResult> countLeadersInliers(MeldFeatures src, List<ReferenceVotes> matches) {
+        var checked = new HashSet<ReferenceFeatures>();
+        List<InlierResult> results = branchAndBound(matches, votes -> votes.matches.size(),
+                votes -> recentWins.count(votes.reference.name),
+                votes -> {
+                    checked.add(votes.reference);
+                    return compareReference(src, votes.reference, votes.matches, votes.matchNanos);
+                },
+                result -> result.inlierCount);
+        //the skipped references were still matched against
+        for (ReferenceVotes votes : matches) {
+            if (!checked.contains(votes.reference)) {
+                findInliersTimers.get(votes.reference.name).record(votes.matchNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        metrics.homographiesSkipped(matches.size() - results.size());
+        return results;
+    }
 
-            //TODO: Make configurable
-            if (srcmatch.distance < 0.7 * refmatch.distance) {
-                goodMatches.add(srcmatch);
+    /**
+     * Checks the candidates with the most good matches first (ties going to the one which won the most recent
+     * identifications), stopping once no candidate left could have more inliers than the best so far, since a
+     * candidate can't have more inliers than good matches
+     *
+     * @param candidates candidates to check
+     * @param goodMatches number of good matches of a candidate
+     * @param recentWins number of the recent identifications a candidate won
+     * @param check counts the inliers of a candidate
+     * @param inliers the inliers counted by check
+     * @return the results of the candidates which were checked, in the order they were checked
+     */
+    static <C, R> List<R> branchAndBound(List<C> candidates, ToIntFunction<C> goodMatches, ToIntFunction<C> recentWins,
+                                         Function<C, R> check, ToLongFunction<R> inliers) {
+        var leaders = new ArrayList<>(candidates);
+        leaders.sort(Comparator.comparingInt(goodMatches).thenComparingInt(recentWins).reversed());
+
+        var results = new ArrayList<R>();
+        long best = 0;
+        for (C leader : leaders) {
+            int matches = goodMatches.applyAsInt(leader);
+            //the rest can't have more inliers than good matches
+            if (matches <= best || matches <= MIN_MATCH_COUNT) {
+                break;
             }
+            R result = check.apply(leader);
+            best = Math.max(best, inliers.applyAsLong(result));
+            results.add(result);
         }
+        return results;
+    }
+
+    private static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(done -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    /**
+     *
+     * @param meld meld to extract features from
+     * @return the keypoints and descriptors of the meld's image
+     */
+    public MeldFeatures extractFeatures(MatBox meld) {
+        var event = new TraceEvents.MeldExtracted();
+        event.begin();
+        MatOfKeyPoint keypoints = new MatOfKeyPoint();
+        Mat descriptors = new Mat();
+        workers.useWorker(worker -> worker.detectAndCompute(meld.getMat(), keypoints, descriptors));
+        event.frameId = meld.frameId;
+        event.meldId = meld.meldId;
+        event.keypoints = keypoints.total();
+        event.commit();
+        return new MeldFeatures(meld, keypoints, descriptors);
+    }
+
+    /**
+     * Uses the feature backend to find inliers, returns the count of inliers
+     *
+     */
+    InlierResult findInliers(MeldFeatures src, ReferenceFeatures reference) {
+        //based on this
+        //https://docs.opencv.org/3.4/d7/dff/tutorial_feature_homography.html
+        var event = new TraceEvents.ReferenceCompared();
+        event.begin();
+        long start = System.nanoTime();
+        InlierResult result = countInliers(src, reference, findGoodMatches(src, reference));
+        findInliersTimers.get(reference.name).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        commit(event, src, reference, result);
+        return result;
+    }
+
+    /**
+     * Like findInliers, but with the good matches already found
+     *
+     * @param matchNanos time it took to find the good matches, so the reference's timer includes it
+     */
+    private InlierResult compareReference(MeldFeatures src, ReferenceFeatures reference, List<DMatch> goodMatches,
+                                          long matchNanos) {
+        var event = new TraceEvents.ReferenceCompared();
+        event.begin();
+        long start = System.nanoTime();
+        InlierResult result = countInliers(src, reference, goodMatches);
+        findInliersTimers.get(reference.name).record(matchNanos + System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        commit(event, src, reference, result);
+        return result;
+    }
+
+    private static void commit(TraceEvents.ReferenceCompared event, MeldFeatures src, ReferenceFeatures reference,
+                               InlierResult result) {
+        event.frameId = src.meld.frameId;
+        event.meldId = src.meld.meldId;
+        event.reference = reference.name;
+        event.inliers = result.inlierCount;
+        event.commit();
+    }
+
+    /**
+     *
+     * @param goodMatches matches between src and reference which passed the ratio test, with
+     *                    queryIdx indexing src's keypoints and trainIdx indexing reference's keypoints.
+     * @return the inliers of the homography between src and reference found using the good matches
+     */
+    private InlierResult countInliers(MeldFeatures src, ReferenceFeatures reference, List<DMatch> goodMatches) {
+        String referenceName = reference.name;
 
         //TODO: Make configurable
         if (goodMatches.size() > MIN_MATCH_COUNT) {
 
             //get the keypoints from the good matches so we can do homography
-            List<KeyPoint> kplistSrc = kpSrc.toList();
-            List<KeyPoint> kplistRef = kpRef.toList();
+            List<KeyPoint> kplistSrc = src.keypoints.toList();
+            List<KeyPoint> kplistRef = reference.keypoints.toList();
             List<Point> srcPts = new ArrayList<>();
             List<Point> refPts = new ArrayList<>();
             for (var match : goodMatches) {
                 srcPts.add(kplistSrc.get(match.queryIdx).pt);
                 refPts.add(kplistRef.get(match.trainIdx).pt);
             }
-            MatOfPoint2f srcMat = new MatOfPoint2f(), refMat = new MatOfPoint2f();
-            srcMat.fromList(srcPts);
-            refMat.fromList(refPts);
-            //TODO: make configurable
-            Mat mask = new Mat();
-            Calib3d.findHomography( srcMat, refMat, Calib3d.RANSAC, 5.0, mask);
-            //I think this is okay...we just need the size of the mask, that's our inlier count
-            System.out.println("Done comparing to " + referenceName);
-            return new InlierResult(referenceName, mask.total(), src);
+            var event = new TraceEvents.Homography();
+            event.begin();
+            try (MatArena arena = new MatArena()) {
+                MatOfPoint2f srcMat = arena.track("Identifier.countInliers/srcPoints", new MatOfPoint2f());
+                MatOfPoint2f refMat = arena.track("Identifier.countInliers/refPoints", new MatOfPoint2f());
+                srcMat.fromList(srcPts);
+                refMat.fromList(refPts);
+                //TODO: make configurable
+                Mat mask = arena.newMat("Identifier.countInliers/mask");
+                Mat homography = arena.track("Identifier.countInliers/homography",
+                        Calib3d.findHomography( srcMat, refMat, Calib3d.RANSAC, 5.0, mask));
+                if (homography.empty()) {
+                    metrics.homographyFailed();
+                } else {
+                    metrics.homographyFound();
+                }
+                //the mask marks which of the matches are inliers
+                long inliers = homography.empty() || mask.empty() ? 0 : Core.countNonZero(mask);
+                event.frameId = src.meld.frameId;
+                event.meldId = src.meld.meldId;
+                event.reference = referenceName;
+                event.goodMatches = goodMatches.size();
+                event.inliers = inliers;
+                event.found = !homography.empty();
+                event.commit();
+                return new InlierResult(referenceName, inliers, src.meld);
+            }
         } else {
             //not enough matches
-            System.out.println("Done comparing to " + referenceName);
-            return new InlierResult(referenceName, 0, src);
+            metrics.tooFewMatches();
+            return new InlierResult(referenceName, 0, src.meld);
         }
 
     }
 
-    public Mat drawMatches(Mat src, Mat reference) {
-        //based on this
-        //https://docs.opencv.org/3.4/d7/dff/tutorial_feature_homography.html
+    /**
+     * Queries the global matcher once with all of src's descriptors. Each descriptor whose nearest
+     * neighbour passes lowe's ratio test is a vote for the reference that neighbour came from.
+     *
+     * @return the references with the most votes (at most config.globalCandidates of them), with the
+     * matches that voted for them, most votes first.
+     */
+    private List<ReferenceVotes> voteForReferences(MeldFeatures src) {
+        if (src.descriptors.empty() || globalReferences.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<MatOfDMatch> matches = new ArrayList<>();
+        workers.useWorker(worker -> worker.globalMatcher(globalReferences).knnMatch(src.descriptors, matches, 2));
+
+        var referenceToVotes = new HashMap<Integer, ReferenceVotes>();
+        for (var matcharray : releaseMatches(matches, "Identifier.voteForReferences/knnMatches")) {
+            if (matcharray.length < 2) continue;
+            var srcmatch = matcharray[0];
+            var refmatch = matcharray[1];
+
+            //the second neighbour may be from another reference - if it's nearly as close, the descriptor
+            //doesn't tell those references apart, so it shouldn't vote for either
+            if (srcmatch.distance < LOWE_RATIO * refmatch.distance) {
+                referenceToVotes.computeIfAbsent(srcmatch.imgIdx, idx -> new ReferenceVotes(globalReferences.get(idx)))
+                        .matches.add(srcmatch);
+            }
+        }
 
-        MatOfKeyPoint kpSrc = new MatOfKeyPoint();
-        Mat desSrc = new Mat();
-        kaze.detectAndCompute(src, new Mat(), kpSrc, desSrc);
-        MatOfKeyPoint kpRef = new MatOfKeyPoint();
-        Mat desRef = new Mat();
-        kaze.detectAndCompute(reference, new Mat(), kpRef, desRef);
+        return referenceToVotes.values().stream()
+                .filter(votes -> votes.matches.size() > MIN_MATCH_COUNT)
+                .sorted(Comparator.comparingInt((ReferenceVotes votes) -> votes.matches.size()).reversed())
+                .limit(config.getGlobalCandidates())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     *
+     * @return matches between src and reference which pass lowe's ratio test
+     */
+    private List<DMatch> findGoodMatches(MeldFeatures src, ReferenceFeatures reference) {
+        List<DMatch> goodMatches = new ArrayList<>();
+        if (src.descriptors.empty() || reference.descriptors.empty()) {
+            //nothing to match
+            return goodMatches;
+        }
 
         //search for matches among the descriptors.
         List<MatOfDMatch> matches = new ArrayList<>();
-        flannMatcher.knnMatch(desSrc, desRef, matches, 2);
+        workers.useWorker(worker -> worker.matcherFor(reference).knnMatch(src.descriptors, matches, 2));
 
         //find good matches using lowe's ratio test
-        List<DMatch> goodMatches = new ArrayList<>();
-        for (var matofmatch : matches) {
-            var matcharray = matofmatch.toArray();
+        for (var matcharray : releaseMatches(matches, "Identifier.findGoodMatches/knnMatches")) {
             if (matcharray.length < 2) continue;
             var srcmatch = matcharray[0];
             var refmatch = matcharray[1];
 
-            //TODO: Make configurable
-            if (srcmatch.distance < 0.7 * refmatch.distance) {
+            if (srcmatch.distance < LOWE_RATIO * refmatch.distance) {
                 goodMatches.add(srcmatch);
             }
         }
+        return goodMatches;
+    }
+
+    /**
+     * The Mats knnMatch returns are only needed long enough to copy out their matches, so they are released
+     * straight away.
+     *
+     * @return the matches of each Mat
+     */
+    private static List<DMatch[]> releaseMatches(List<MatOfDMatch> matches, String site) {
+        try (MatArena arena = new MatArena()) {
+            List<DMatch[]> arrays = new ArrayList<>(matches.size());
+            for (var matofmatch : matches) {
+                arrays.add(arena.track(site, matofmatch).toArray());
+            }
+            return arrays;
+        }
+    }
+
+    public Mat drawMatches(MeldFeatures src, ReferenceFeatures reference) {
+        //based on this
+        //https://docs.opencv.org/3.4/d7/dff/tutorial_feature_homography.html
+
+        List<DMatch> goodMatches = findGoodMatches(src, reference);
 
         //TODO: Make configurable
         if (goodMatches.size() > MIN_MATCH_COUNT) {
 
             MatOfDMatch matchMat = new MatOfDMatch(goodMatches.toArray(new DMatch[0]));
             Mat matchImg = new Mat();
-            Features2d.drawMatches(src, kpSrc, reference, kpRef, matchMat, matchImg, Scalar.all(-1), Scalar.all(-1));
-            //get the keypoints from the good matches so we can do homography
+            Features2d.drawMatches(src.meld.getMat(), src.keypoints, reference.image, reference.keypoints, matchMat, matchImg, Scalar.all(-1), Scalar.all(-1));
+            matchMat.release();
             return matchImg;
         } else {
             return null;
@@ -316,7 +959,56 @@ public class Identifier {
         }
     }
 
-    private static class InlierResult {
+    //good matches between a meld and a reference. In the GLOBAL mode, the matches which voted for the reference.
+    private static class ReferenceVotes {
+        private final ReferenceFeatures reference;
+        private final List<DMatch> matches;
+        //time it took to find the matches, if they were found for just this reference
+        private final long matchNanos;
+
+        public ReferenceVotes(ReferenceFeatures reference) {
+            this(reference, new ArrayList<>());
+        }
+
+        public ReferenceVotes(ReferenceFeatures reference, List<DMatch> matches) {
+            this(reference, matches, 0);
+        }
+
+        public ReferenceVotes(ReferenceFeatures reference, List<DMatch> matches, long matchNanos) {
+            this.reference = reference;
+            this.matches = matches;
+            this.matchNanos = matchNanos;
+        }
+    }
+
+    //the references which won the latest identifications
+    static class RecentWins {
+        private final int window;
+        private final ArrayDeque<String> winners = new ArrayDeque<>();
+        private final Map<String, Integer> counts = new HashMap<>();
+
+        RecentWins(int window) {
+            this.window = window;
+        }
+
+        synchronized void add(String referenceName) {
+            winners.addLast(referenceName);
+            counts.merge(referenceName, 1, Integer::sum);
+            if (winners.size() > window) {
+                counts.merge(winners.removeFirst(), -1, Integer::sum);
+            }
+        }
+
+        /**
+         *
+         * @return how many of the latest identifications the reference won
+         */
+        synchronized int count(String referenceName) {
+            return counts.getOrDefault(referenceName, 0);
+        }
+    }
+
+    static class InlierResult {
         private String referenceName;
         private long inlierCount;
         private MatBox srcMeld;
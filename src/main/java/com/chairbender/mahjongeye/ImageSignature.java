@@ -0,0 +1,131 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact global signature of an image, which is much cheaper to compare than keypoints. Used to rule out
+ * references that a meld clearly isn't before matching its features.
+ */
+public class ImageSignature {
+    private static final int HUE_BINS = 18;
+    private static final int SATURATION_BINS = 4;
+    private static final Size EDGE_SIZE = new Size(16, 16);
+    //edges are found at this size, before being downsampled to EDGE_SIZE
+    private static final Size EDGE_DETECT_SIZE = new Size(64, 64);
+
+    //hue / saturation histogram, summing to 1
+    private final float[] histogram;
+    //longest side / shortest side
+    private final double aspectRatio;
+    //edge magnitudes, summing to 1
+    private final float[] edges;
+
+    private ImageSignature(float[] histogram, double aspectRatio, float[] edges) {
+        this.histogram = histogram;
+        this.aspectRatio = aspectRatio;
+        this.edges = edges;
+    }
+
+    /**
+     *
+     * @param image BGR (or grayscale) image
+     * @return the signature of image
+     */
+    public static ImageSignature of(Mat image) {
+        try (MatArena arena = new MatArena()) {
+            Mat bgr = image;
+            if (image.channels() == 1) {
+                bgr = arena.newMat("ImageSignature.of/bgr");
+                Imgproc.cvtColor(image, bgr, Imgproc.COLOR_GRAY2BGR);
+            }
+
+            Mat hsv = arena.newMat("ImageSignature.of/hsv");
+            Imgproc.cvtColor(bgr, hsv, Imgproc.COLOR_BGR2HSV);
+            Mat histogram = arena.newMat("ImageSignature.of/histogram");
+            Imgproc.calcHist(List.of(hsv), arena.track("ImageSignature.of/channels", new MatOfInt(0, 1)),
+                    arena.newMat("ImageSignature.of/mask"), histogram,
+                    arena.track("ImageSignature.of/bins", new MatOfInt(HUE_BINS, SATURATION_BINS)),
+                    arena.track("ImageSignature.of/ranges", new MatOfFloat(0, 180, 0, 256)));
+
+            Mat gray = arena.newMat("ImageSignature.of/gray");
+            Imgproc.cvtColor(bgr, gray, Imgproc.COLOR_BGR2GRAY);
+            Mat small = arena.newMat("ImageSignature.of/small");
+            Imgproc.resize(gray, small, EDGE_DETECT_SIZE, 0, 0, Imgproc.INTER_AREA);
+            Mat dx = arena.newMat("ImageSignature.of/dx");
+            Mat dy = arena.newMat("ImageSignature.of/dy");
+            Imgproc.Sobel(small, dx, CvType.CV_32F, 1, 0);
+            Imgproc.Sobel(small, dy, CvType.CV_32F, 0, 1);
+            Mat magnitude = arena.newMat("ImageSignature.of/magnitude");
+            Core.magnitude(dx, dy, magnitude);
+            Mat edges = arena.newMat("ImageSignature.of/edges");
+            Imgproc.resize(magnitude, edges, EDGE_SIZE, 0, 0, Imgproc.INTER_AREA);
+
+            double aspectRatio = (double) Math.max(image.width(), image.height()) /
+                    Math.max(1, Math.min(image.width(), image.height()));
+            return new ImageSignature(normalized(histogram), aspectRatio, normalized(edges));
+        }
+    }
+
+    //the values of a float Mat, scaled to sum to 1
+    private static float[] normalized(Mat mat) {
+        float[] values = new float[(int) mat.total()];
+        mat.get(0, 0, values);
+        double sum = 0;
+        for (float value : values) {
+            sum += value;
+        }
+        if (sum > 0) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] /= sum;
+            }
+        }
+        return values;
+    }
+
+    /**
+     *
+     * @param features features to compare by
+     * @return distance between the signatures, from 0 (same) to 1. The mean of the distances of each feature.
+     */
+    public double distance(ImageSignature other, Collection<PrefilterFeature> features) {
+        if (features.isEmpty()) {
+            return 0;
+        }
+        double distance = 0;
+        for (PrefilterFeature feature : features) {
+            switch (feature) {
+                case HISTOGRAM:
+                    distance += bhattacharyya(histogram, other.histogram);
+                    break;
+                case ASPECT_RATIO:
+                    distance += Math.min(1, Math.abs(Math.log(aspectRatio / other.aspectRatio)));
+                    break;
+                case EDGES:
+                    distance += l1(edges, other.edges) / 2;
+                    break;
+            }
+        }
+        return distance / features.size();
+    }
+
+    //distance between two distributions, from 0 to 1
+    private static double bhattacharyya(float[] a, float[] b) {
+        double coefficient = 0;
+        for (int i = 0; i < a.length; i++) {
+            coefficient += Math.sqrt(a[i] * b[i]);
+        }
+        return Math.sqrt(Math.max(0, 1 - coefficient));
+    }
+
+    private static double l1(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,169 @@
+package com.chairbender.mahjongeye;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the labels of melds by a perceptual hash of their image, so a meld that looks the same as one
+ * which was already confidently identified (i.e. the same tile in a later frame or game) is labeled without
+ * matching its features at all.
+ *
+ * Images are hashed with a difference hash (dHash) of their grayscale, turned upright and downsampled, so the
+ * hash doesn't depend on their size and tiles lying sideways hash the same as upright ones. Tiles upside down are
+ * found by also looking up the hash of the image rotated 180 degrees. Hashes within the hamming radius of a
+ * remembered hash count as the same.
+ *
+ * Thread safe.
+ */
+public class LabelCache {
+    //rough heap used by each entry - the key, the entry and guava's bookkeeping. The labels are shared.
+    private static final long BYTES_PER_ENTRY = 128;
+
+    private final Cache<Long, Entry> cache;
+    private final int radius;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * A remembered label
+     */
+    public static class Entry {
+        public final String label;
+        /**
+         * inliers of the identification the label came from
+         */
+        public final long inlierCount;
+
+        public Entry(String label, long inlierCount) {
+            this.label = label;
+            this.inlierCount = inlierCount;
+        }
+    }
+
+    /**
+     *
+     * @param maxEntries entries kept, the least recently used are evicted beyond this
+     * @param ttl how long an entry is kept after it was added
+     * @param radius maximum hamming distance between hashes which count as the same image
+     */
+    public LabelCache(int maxEntries, Duration ttl, int radius) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.radius = radius;
+    }
+
+    /**
+     *
+     * @param image BGR (or grayscale) image of a meld
+     * @return hashes of the image upright and rotated 180 degrees
+     */
+    public static long[] hashes(Mat image) {
+        byte[] pixels = new byte[9 * 8];
+        try (MatArena arena = new MatArena()) {
+            Mat gray = image;
+            if (image.channels() != 1) {
+                gray = arena.newMat("LabelCache.hashes/gray");
+                Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+            }
+            if (gray.width() > gray.height()) {
+                Mat upright = arena.newMat("LabelCache.hashes/upright");
+                Core.rotate(gray, upright, Core.ROTATE_90_CLOCKWISE);
+                gray = upright;
+            }
+            //one more column than bits, since each bit compares a pixel with the next
+            Mat small = arena.newMat("LabelCache.hashes/small");
+            Imgproc.resize(gray, small, new Size(9, 8), 0, 0, Imgproc.INTER_AREA);
+            small.get(0, 0, pixels);
+        }
+
+        long hash = 0;
+        long rotatedHash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash = hash << 1 | (pixel(pixels, x, y) < pixel(pixels, x + 1, y) ? 1 : 0);
+                //the same comparison on the image rotated 180 degrees
+                rotatedHash = rotatedHash << 1 | (pixel(pixels, 8 - x, 7 - y) < pixel(pixels, 7 - x, 7 - y) ? 1 : 0);
+            }
+        }
+        return new long[]{hash, rotatedHash};
+    }
+
+    private static int pixel(byte[] pixels, int x, int y) {
+        return pixels[y * 9 + x] & 0xFF;
+    }
+
+    /**
+     *
+     * @param hashes hashes of the meld, from hashes()
+     * @return the remembered entry closest to the meld, null if none are within the radius
+     */
+    public Entry get(long[] hashes) {
+        Long closest = null;
+        int closestDistance = radius + 1;
+        for (long hash : hashes) {
+            if (cache.getIfPresent(hash) != null) {
+                closest = hash;
+                break;
+            }
+        }
+        if (closest == null && radius > 0) {
+            for (Long key : cache.asMap().keySet()) {
+                for (long hash : hashes) {
+                    int distance = Long.bitCount(key ^ hash);
+                    if (distance < closestDistance) {
+                        closest = key;
+                        closestDistance = distance;
+                    }
+                }
+            }
+        }
+
+        //looked up again so it counts as used
+        Entry entry = closest == null ? null : cache.getIfPresent(closest);
+        (entry == null ? misses : hits).incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Remembers the meld's label
+     *
+     * @param hashes hashes of the meld, from hashes()
+     */
+    public void put(long[] hashes, String label, long inlierCount) {
+        cache.put(hashes[0], new Entry(label, inlierCount));
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     *
+     * @return approximate heap used by the cache
+     */
+    public long bytes() {
+        return cache.size() * BYTES_PER_ENTRY;
+    }
+}
@@ -4,12 +4,112 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 
 @Data
 @ConfigurationProperties(prefix = "mahjong-eye")
 public class MahjongEyeConfig {
     private Path standardDir;
+    /**
+     * File holding the precomputed features of the standard images. Null to always compute them at startup.
+     */
+    private Path referenceIndex;
+    /**
+     * Detector and matcher used to identify melds
+     */
+    private FeatureBackend featureBackend = FeatureBackend.KAZE;
+    /**
+     * Resolution frames are processed at
+     */
+    private ResolutionMode resolutionMode = ResolutionMode.STANDARDIZED;
+    /**
+     * In the MULTI_RESOLUTION mode, frames whose longest side is larger than this are reduced to it for segmentation
+     */
+    private int segmentationMaxSize = 960;
+    /**
+     * How melds are matched against the standard images
+     */
+    private MatchingMode matchingMode = MatchingMode.PER_REFERENCE;
+    /**
+     * In the GLOBAL matching mode, how many of the most voted for references have their homography checked
+     */
+    private int globalCandidates = 3;
+    /**
+     * In the PER_REFERENCE and BRANCH_AND_BOUND matching modes, how many of the references with the closest global
+     * signatures each meld is matched against. 0 to match against every reference.
+     */
+    private int prefilterCandidates = 0;
+    /**
+     * Global signatures the prefilter compares melds and references by
+     */
+    private List<PrefilterFeature> prefilterFeatures = List.of(PrefilterFeature.values());
+    /**
+     * Every this many melds, a meld is matched against every reference to check the prefilter didn't remove the
+     * reference that would have won. 0 to never check.
+     */
+    private int prefilterAuditEvery = 50;
+    /**
+     * Number of melds whose labels are remembered by their perceptual hash, so they aren't identified again.
+     * 0 to not remember any.
+     */
+    private int labelCacheSize = 0;
+    /**
+     * How long a remembered label is kept
+     */
+    private Duration labelCacheTtl = Duration.ofMinutes(30);
+    /**
+     * Maximum hamming distance (out of 64 bits) between the perceptual hashes of melds which count as the same
+     */
+    private int labelCacheRadius = 4;
+    /**
+     * Minimum inliers for an identification's label to be remembered
+     */
+    private int labelCacheMinInliers = 10;
+    /**
+     * Maximum mean difference (0 - 255) between the normalized thumbnails of melds in the same frame for only one
+     * of them to be identified, the rest reusing its label. 0 to identify every meld.
+     */
+    private double dedupMaxDifference = 0;
+    /**
+     * Melds which differ from the meld identified for them by more than this are checked against its label
+     * rather than just reusing it
+     */
+    private double dedupRecheckDifference = 6;
+    /**
+     * Whether to split melds of several adjacent tiles into single tiles (by the tiles' aspect ratio and edges)
+     * and identify each tile, rather than searching for one reference in the whole meld
+     */
+    private boolean splitTiles = false;
+    /**
+     * Number of threads in the identification executor
+     */
+    private int identifyThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Maximum number of detector / matcher sets used at once. Each thread doing identification needs its own,
+     * so this should be at least identifyThreads.
+     */
+    private int featureWorkers = Runtime.getRuntime().availableProcessors() + 1;
+    /**
+     * Maximum size of the stage results the UI keeps for the current frame, so changing a parameter only reruns
+     * the stages after it
+     */
+    private DataSize stageCacheSize = DataSize.ofMegabytes(256);
+    /**
+     * Minimum intersection over union for the UI to consider a meld the same as one in the previous frame
+     */
+    private double trackingMinIou = 0.7;
+    /**
+     * Maximum mean difference (0 - 255) between the downsampled pixels of a tracked meld and its previous meld
+     * for the previous identification to be reused
+     */
+    private double trackingMaxDifference = 8;
+    /**
+     * Port the metrics are served on (from localhost only) in the Prometheus text format. Null to not serve them.
+     */
+    private Integer metricsPort;
 
 }
@@ -68,7 +68,9 @@ public class MahjongeyeApplication extends Application {
 
 	@Override
 	public void stop() {
-		springContext.stop();
+		//closing (rather than just stopping) the context runs the beans' destroy methods, so
+		//executors are shut down
+		springContext.close();
 	}
 
 }
@@ -4,38 +4,35 @@ import java.io.*;
 
 import com.github.sarxos.webcam.Webcam;
 import com.github.sarxos.webcam.WebcamResolution;
+import io.micrometer.core.instrument.Timer;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.fxml.FXML;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.TextField;
 import javafx.scene.control.*;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.WritableImage;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.BorderPane;
 import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Controller;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 
 
 @Controller
+@Profile("!batch & !backend-benchmark")
 public class MainController {
     @FXML
     public TextField contourApproxEpsilon;
@@ -49,7 +46,7 @@ public class MainController {
     @FXML
     private ImageView meldReferenceView;
 
-    private Mat droppedImage;
+    private volatile Mat droppedImage;
 
     //holds the image prior to preprocessing
     private Mat rawImage;
@@ -59,8 +56,6 @@ public class MainController {
     @FXML
     private ComboBox<ReferenceImage> referenceSelection;
 
-    @FXML
-    private TextField threads;
     @FXML
     private TextField meldThreshold;
     @FXML
@@ -73,26 +68,77 @@ public class MainController {
 
     @Autowired
     private Identifier identifier;
+    @Autowired
+    private Pipeline pipeline;
+    @Autowired
+    private MahjongEyeConfig config;
+    @Autowired
+    private PipelineMetrics metrics;
+
+    //results of the stages on the current frame, so changing a setting only reruns the stages after it
+    private StageCache stageCache;
+    //id of the frame the stage results are from
+    private long frameId;
+    //remembers the melds identified in previous frames, so unchanged melds aren't identified again
+    private MeldTracker meldTracker;
 
     //holds the contours calculated in the current snapshot
     private List<MatOfPoint> savedContours;
     //holds the saved calculated melds
     private MeldResult savedMelds;
+    //images of the saved melds, built once per pass for both the meld selection and identify. Null if the meld
+    //stage didn't run in this pass.
+    private MeldImages savedMeldImages;
+    //images of the melds in the meld selection. Only touched on the FX thread.
+    private MeldImages shownMeldImages;
 
     private List<MatProcessor> preprocessors;
+    //identify runs separately from the other stages, after preprocessFrame
+    private MatProcessor identifyProcessor;
+
+    //display frames in the image views without going through BufferedImages
+    private FxImageSink currentFrameSink;
+    private FxImageSink meldReferenceSink;
+
+    //copies webcam frames into Mats without a JPEG round-trip
+    private final FrameConverter frameConverter = new FrameConverter();
 
-    private ScheduledExecutorService frameGrabberExecutor = Executors.newSingleThreadScheduledExecutor();
-    private ScheduledFuture<Runnable> currentFrameGrabber;
+    //shortest time between frames captured while streaming
+    private static final long MIN_CAPTURE_INTERVAL_MILLIS = 50;
+    //how often the stream's stats are refreshed in the UI
+    private static final long STREAM_STATS_INTERVAL_MILLIS = 500;
+
+    @FXML
+    private Button snapButton;
+    @FXML
+    private CheckBox streamToggle;
+    @FXML
+    private Label streamStats;
+
+    private FrameStream<MeldedFrame> frameStream;
+    private long lastStreamStatsMillis;
+
+    //the stages also run on the stream's threads, which mustn't touch the controls, so what they need from the
+    //controls is copied here on the FX thread whenever it changes
+    private volatile PipelineSettings settings;
+    private volatile MatProcessor selectedProcessor;
+    private volatile IndexedWebcam selectedWebcam;
 
     private boolean stream = false;
 
     public String path = System.getProperty("user.dir");
 
-    private String standardDir = path + "\\standard";
-
     @FXML
     private void initialize() {
+        currentFrameSink = new FxImageSink(currentFrame.imageProperty());
+        meldReferenceSink = new FxImageSink(meldReferenceView.imageProperty());
+        stageCache = new StageCache(config.getStageCacheSize().toBytes());
+        meldTracker = new MeldTracker(config.getTrackingMinIou(), config.getTrackingMaxDifference(), metrics);
         loadProperties();
+        onSettingsChanged();
+        for (TextField field : List.of(minContourArea, maxContourArea, contourApproxEpsilon, meldThreshold)) {
+            field.textProperty().addListener((obs, old, newVal) -> onSettingsChanged());
+        }
         initializeReferences();
         initializeWebcamDropdown();
         initializeProcessors();
@@ -124,8 +170,11 @@ public class MainController {
                     @Override
                     public void run() {
                         System.out.println(file.getAbsolutePath());
-                        droppedImage = Utils.scaledImread(file.getAbsolutePath(), false);
-                        updateImage(droppedImage);
+                        droppedImage = pipeline.prepareFrame(Imgcodecs.imread(file.getAbsolutePath()));
+                        //while streaming, the stream picks up the dropped image itself
+                        if (!stream) {
+                            updateImage(droppedImage, TraceEvents.nextFrameId());
+                        }
                     }
                 });
             }
@@ -149,66 +198,45 @@ public class MainController {
         preprocessors = new ArrayList<>();
 
         //preprocessors.add(new MatProcessor("blur", this::blur));
-        preprocessors.add(new MatProcessor("grayscale", this::grayscale));
-        preprocessors.add(new MatProcessor("threshold", this::threshold));
+        preprocessors.add(new MatProcessor("grayscale", (src, frameArena) -> grayscale(src)));
+        preprocessors.add(new MatProcessor("threshold", (src, frameArena) -> threshold(src)));
         preprocessors.add(new MatProcessor("contour", this::contour));
         preprocessors.add(new MatProcessor("meld", this::meld));
-        preprocessors.add(new MatProcessor("identify", this::identify));
+        identifyProcessor = new MatProcessor("identify", (src, frameArena) -> identify(rawImage, savedMeldImages, frameArena));
+        preprocessors.add(identifyProcessor);
 
         preprocessorSelection.setItems(FXCollections.observableArrayList(preprocessors));
-        preprocessorSelection.getSelectionModel().selectedItemProperty().addListener(
-                (obs, old, newVal) -> resetFeed(webcamSelection.getValue(), webcamSelection.getValue()));
+        preprocessorSelection.getSelectionModel().selectedItemProperty().addListener((obs, old, newVal) -> {
+            selectedProcessor = newVal;
+            resetFeed(webcamSelection.getValue(), webcamSelection.getValue());
+        });
 
         //default to first item
         preprocessorSelection.getSelectionModel().select(0);
     }
 
+    //each stage's cache key includes every setting it and the stages before it read, since the stages
+    //always run in order from the raw frame
+
     private Mat grayscale(Mat src) {
-        var dst = new Mat();
-        Imgproc.cvtColor(src, dst, Imgproc.COLOR_BGR2GRAY);
-        return dst;
+        return stageCache.get("grayscale", List.of(), () -> pipeline.segmentationGrayscale(src));
     }
 
     private Mat threshold(Mat src) {
-        var dst = new Mat();
-        //Imgproc.adaptiveThreshold(src, dst, 255.0, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY_INV,
-        //        Integer.parseInt(blockSize.getText()), Integer.parseInt(thresholdC.getText()));
-        Imgproc.threshold(src, dst, 0, 255, Imgproc.THRESH_BINARY_INV + Imgproc.THRESH_OTSU);
-        return dst;
-    }
-
-    private Mat contour(Mat src) {
-        var hierarchy = new Mat();
-        List<MatOfPoint> contours = new ArrayList<>();
-        Imgproc.findContours(src, contours, hierarchy, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE);
-        //filter out contours by area
-        int min = Integer.parseInt(minContourArea.getText());
-        int max = Integer.parseInt(maxContourArea.getText());
-        savedContours = contours.stream()
-                //min / max area
-                .filter(cont -> {
-                    var area = Imgproc.contourArea(cont);
-                    return area > min && area < max;
-                })
-                //contour approximation
-                .map( cont -> {
-                    MatOfPoint2f approx = new MatOfPoint2f();
-                    Imgproc.approxPolyDP(new MatOfPoint2f(cont.toArray()), approx, Double.parseDouble(contourApproxEpsilon.getText()), true);
-                    return new MatOfPoint(approx.toArray());
-                })
-                //convex hull
-                .map( cont -> {
-                    MatOfInt hull = new MatOfInt();
-                    Imgproc.convexHull(cont, hull);
-                    return convertIndexesToPoints(cont, hull);
-                })
-                //remove empty contours
-                .filter(cont -> !cont.empty())
-                .collect(Collectors.toList());
+        return stageCache.get("threshold", List.of(), () -> pipeline.threshold(src));
+    }
+
+    //drawings are only needed until they are displayed, so they are tracked by the frame's arena
+
+    private Mat contour(Mat src, MatArena frameArena) {
+        PipelineSettings settings = pipeline.segmentationSettings(this.settings, rawImage);
+        savedContours = stageCache.get("contour",
+                List.of(settings.minContourArea, settings.maxContourArea, settings.contourApproxEpsilon),
+                () -> pipeline.contours(src, settings));
 
         //only draw the contours if we are selected
-        if ("contour".equals(preprocessorSelection.getSelectionModel().getSelectedItem().name)) {
-            Mat color = new Mat();
+        if ("contour".equals(selectedProcessor.name)) {
+            Mat color = frameArena.newMat("MainController.contour/drawing");
             Imgproc.cvtColor(src, color, Imgproc.COLOR_GRAY2BGR);
             // if any contour exist...
             for (int i = 0; i < savedContours.size(); i++) {
@@ -221,46 +249,41 @@ public class MainController {
         }
     }
 
-    private Mat meld(Mat src) {
+    private Mat meld(Mat src, MatArena frameArena) {
         //this needs to run after contour so that the contours are already calculated
         if (savedContours == null) {
             return src;
         }
 
-        //convert contours into boxes
-        List<Box> boxes = savedContours.stream().map(Box::boundingContour).collect(Collectors.toList());
-        double threshold = Double.parseDouble(meldThreshold.getText());
-        savedMelds = Box.meldAdjacent(boxes, threshold);
-
-        //TODO: Repeat melding until no more melds are made (until meldResult.didMeld = false)
+        PipelineSettings settings = pipeline.segmentationSettings(this.settings, rawImage);
+        List<MatOfPoint> contours = savedContours;
+        savedMelds = stageCache.get("meld",
+                List.of(settings.minContourArea, settings.maxContourArea, settings.contourApproxEpsilon,
+                        settings.meldThreshold),
+                () -> pipeline.meld(contours, settings));
 
         //draw the melds if this is selected
-        Mat drawMat = src.clone();
-        if ("meld".equals(preprocessorSelection.getSelectionModel().getSelectedItem().name)) {
+        Mat drawMat = frameArena.track("MainController.meld/drawing", src.clone());
+        if ("meld".equals(selectedProcessor.name)) {
             savedMelds.melds.forEach(box -> Imgproc.rectangle(drawMat, box.rect, new Scalar(255, 255, 255), 3));
 
         }
 
-        initializeSavedMelds(savedMelds, rawImage);
+        savedMeldImages = new MeldImages(pipeline.meldImages(savedMelds, rawImage, frameId));
+        initializeSavedMelds(savedMeldImages);
 
         return drawMat;
     }
 
-    private Mat identify(Mat src) {
+    private Mat identify(Mat rawImage, MeldImages melds, MatArena frameArena) {
         //cant do anything if we haven't calculated melds - this needs to run after meld
-        if (savedMelds == null) {
-            return src;
+        if (melds == null) {
+            return rawImage;
         }
 
-        //create matboxes from the source image
-        var matBoxes = savedMelds.melds.stream()
-                //TODO: Configurable padding
-                .map(box -> MatBox.fromImage(box, rawImage, 5))
-                .collect(Collectors.toList());
-
-        Map<MatBox, String> identifications = identifier.identify(matBoxes, Integer.parseInt(threads.getText()));
-        reinitializeSavedMelds(identifications);
-        Mat textMat = rawImage.clone();
+        Map<MatBox, String> identifications = identifier.identify(melds.melds, meldTracker);
+        reinitializeSavedMelds(identifications, melds);
+        Mat textMat = frameArena.track("MainController.identify/drawing", rawImage.clone());
         for (var idEntry : identifications.entrySet()) {
             //skip unknown
             if (idEntry.getValue().equals("?")) {
@@ -272,29 +295,41 @@ public class MainController {
         }
         return textMat;
     }
-    //Allows for the selection of melds in a ComboBox
-    private void initializeSavedMelds (MeldResult savedMelds, Mat rawImage) {
 
-        var matBoxes = savedMelds.melds.stream()
-                //TODO: Configurable padding
-                .map(box -> MatBox.fromImage(box, rawImage, 5))
-                .collect(Collectors.toList());
+    //takes a new snapshot of the settings, as long as they're all numbers. Runs on the FX thread.
+    private void onSettingsChanged() {
+        try {
+            settings = currentSettings();
+        } catch (NumberFormatException e) {
+            //keep the last valid settings while a field is being edited
+        }
+    }
 
-        List <MatBox> melds = matBoxes;
+    //the pipeline settings currently entered in the UI. Only call on the FX thread.
+    private PipelineSettings currentSettings() {
+        return new PipelineSettings(
+                Integer.parseInt(minContourArea.getText()),
+                Integer.parseInt(maxContourArea.getText()),
+                Double.parseDouble(contourApproxEpsilon.getText()),
+                Double.parseDouble(meldThreshold.getText()));
+    }
+
+    //Allows for the selection of melds in a ComboBox
+    private void initializeSavedMelds (MeldImages melds) {
 
         List <MeldMat> meldMats = new ArrayList<>();
 
         int i = 0;
-        for (MatBox meld: melds) {
+        for (MatBox meld: melds.melds) {
             meldMats.add(new MeldMat("Meld" + String.valueOf(i), meld));
             i++;
         }
 
-        meldSelection.setItems(FXCollections.observableArrayList(meldMats));
+        showMelds(meldMats, melds);
 
     }
     //After Identification has been done, reinitializes the meldSelection to show the identified names of melds
-    private void reinitializeSavedMelds (Map<MatBox, String> identifications) {
+    private void reinitializeSavedMelds (Map<MatBox, String> identifications, MeldImages melds) {
 
         List <MeldMat> meldMats = new ArrayList<>();
 
@@ -302,52 +337,54 @@ public class MainController {
             meldMats.add(new MeldMat(identification.getValue(), identification.getKey()));
         }
 
-        meldSelection.setItems(FXCollections.observableArrayList(meldMats));
+        showMelds(meldMats, melds);
+    }
+
+    //shows the melds in the meld selection, keeping their images until the selection shows other melds
+    private void showMelds(List<MeldMat> meldMats, MeldImages melds) {
+        melds.retain();
+        Platform.runLater(() -> {
+            meldSelection.setItems(FXCollections.observableArrayList(meldMats));
+            if (shownMeldImages != null) {
+                shownMeldImages.release();
+            }
+            shownMeldImages = melds;
+        });
     }
     //Allows to choose a referenceImage through combobox
     private  void initializeReferences () {
 
-        File[] files = new File(standardDir).listFiles();
         List <ReferenceImage> referenceImages = new ArrayList<>();
 
-        for (File file: files) {
-            if (file.isFile()) {
-                if (file.getName().toLowerCase().endsWith(".jpg")) {
-                    Mat mat = Utils.scaledImread(file.getPath(), true);
-                    referenceImages.add(new ReferenceImage(file.getName(), mat));
-                }
-            }
+        //reuse the references the identifier already loaded rather than reading them again
+        for (ReferenceFeatures reference: identifier.getReferences()) {
+            referenceImages.add(new ReferenceImage(reference.name, reference));
         }
         referenceSelection.setItems(FXCollections.observableArrayList(referenceImages));
     }
     //Reinitializes referenceImages in order to only show those who have inliers
     private void reinitializeReferences(MatBox meld) {
         if (identifier.relevantReferences == null) return;
-        Map<Mat,String> references = identifier.relevantReferences.get(meld);
+        Map<ReferenceFeatures,String> references = identifier.relevantReferences.get(meld);
         List <ReferenceImage> referenceImages = new ArrayList<>();
 
-        for(Map.Entry<Mat,String> reference: references.entrySet()) {
+        for(Map.Entry<ReferenceFeatures,String> reference: references.entrySet()) {
             referenceImages.add(new ReferenceImage(reference.getValue(), reference.getKey()));
         }
         referenceSelection.setItems(FXCollections.observableArrayList(referenceImages));
     }
 
-    public static MatOfPoint convertIndexesToPoints(MatOfPoint contour, MatOfInt indexes) {
-        int[] arrIndex = indexes.toArray();
-        Point[] arrContour = contour.toArray();
-        Point[] arrPoints = new Point[arrIndex.length];
-
-        for (int i=0;i<arrIndex.length;i++) {
-            arrPoints[i] = arrContour[arrIndex[i]];
-        }
-
-        MatOfPoint hull = new MatOfPoint();
-        hull.fromArray(arrPoints);
-        return hull;
-    }
-
     //must call this any time we change a setting
     private void resetFeed(IndexedWebcam oldWebcam, IndexedWebcam newWebcam) {
+        //always stop the old stream, before anything it uses is changed. It's waited for, so its stages don't
+        //run at the same time as the new stream's (or a snap's).
+        if (this.frameStream != null) {
+            this.frameStream.stop();
+            this.frameStream = null;
+            metrics.watch(null);
+        }
+
+        selectedWebcam = newWebcam;
         //stop the old if needed
         if (oldWebcam != null && oldWebcam != newWebcam) {
             oldWebcam.webcam.close();
@@ -355,23 +392,52 @@ public class MainController {
 
         //start the new if webcam changed
         if (oldWebcam != newWebcam) {
+            //a different camera sees different melds
+            meldTracker.reset();
             newWebcam.webcam.setViewSize(WebcamResolution.VGA.getSize());
             newWebcam.webcam.open();
         }
 
-        //always stop the old grabber
-        if (this.currentFrameGrabber != null) {
-            this.currentFrameGrabber.cancel(true);
-            this.currentFrameGrabber = null;
-        }
-
         if (stream) {
-            Runnable grabber = () -> {
-                onSnap();
-            };
+            //capture, preprocessing and identification each run on their own thread, only ever working
+            //on the latest frame
+            this.frameStream = new FrameStream<>(new FrameStream.Stages<>() {
+                @Override
+                public Mat capture() {
+                    return captureFrame();
+                }
+
+                @Override
+                public MeldedFrame preprocess(Mat frame, long frameId) {
+                    return preprocessFrame(frame, frameId);
+                }
+
+                @Override
+                public void identify(MeldedFrame frame) {
+                    identifyFrame(frame);
+                    showStreamStats();
+                }
+
+                @Override
+                public void dropped(MeldedFrame frame) {
+                    if (frame.melds != null) {
+                        frame.melds.release();
+                    }
+                }
+            }, MIN_CAPTURE_INTERVAL_MILLIS);
+            metrics.watch(this.frameStream);
+            this.frameStream.start();
+        }
+    }
 
-            this.currentFrameGrabber = (ScheduledFuture<Runnable>) this.frameGrabberExecutor.scheduleAtFixedRate(grabber, 0, 500, TimeUnit.MILLISECONDS);
+    public void onToggleStream() {
+        stream = streamToggle.isSelected();
+        //snapping would run the stages on the FX thread at the same time as the stream
+        snapButton.setDisable(stream);
+        if (!stream) {
+            streamStats.setText("");
         }
+        resetFeed(webcamSelection.getValue(), webcamSelection.getValue());
     }
 
     public void shutdown() {
@@ -379,47 +445,126 @@ public class MainController {
             webcamSelection.getValue().webcam.close();
         }
 
-        frameGrabberExecutor.shutdown();
+        if (frameStream != null) {
+            frameStream.stop();
+        }
+    }
+
+    private void updateImage(Mat newImage, long frameId) {
+        MeldedFrame melded = preprocessFrame(newImage, frameId);
+        if (melded != null) {
+            identifyFrame(melded);
+        }
     }
 
-    private void updateImage(Mat newImage) {
+    /**
+     * Runs the stages up to the selected one, stopping before identify. If identify isn't selected,
+     * displays the result.
+     *
+     * @param traceId id of this pass over the frame, for tracing
+     * @return the frame and its melds if identify is selected, otherwise null
+     */
+    private MeldedFrame preprocessFrame(Mat newImage, long traceId) {
+        //the stage cache is keyed by the id of the image's first pass, so resnapping the same image (i.e. a
+        //dropped image) keeps the cached stage results for it
+        if (newImage != rawImage) {
+            frameId = traceId;
+        }
+        stageCache.startPass(frameId);
         rawImage = newImage;
-        for (var processor : preprocessors) {
-            newImage = processor.preprocess.apply(newImage);
-            if (preprocessorSelection.getValue().equals(processor)) {
-                break;
+        savedMeldImages = null;
+        //the sink copies what it shows, so everything the stages drew can be released once it's shown
+        try (MatArena frameArena = new MatArena()) {
+            for (var processor : preprocessors) {
+                if ("identify".equals(processor.name)) {
+                    //identify takes over the pass's hold on the meld images
+                    return new MeldedFrame(rawImage, savedMeldImages, traceId);
+                }
+                var stage = TraceEvents.stage(traceId, processor.name);
+                long start = System.nanoTime();
+                newImage = processor.preprocess.apply(newImage, frameArena);
+                processor.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                stage.commit();
+                if (selectedProcessor == processor) {
+                    break;
+                }
+            }
+
+            currentFrameSink.show(newImage);
+        }
+        if (savedMeldImages != null) {
+            savedMeldImages.release();
+        }
+        showStreamStats();
+        return null;
+    }
+
+    private void identifyFrame(MeldedFrame frame) {
+        var stage = TraceEvents.stage(frame.frameId, identifyProcessor.name);
+        long start = System.nanoTime();
+        try (MatArena frameArena = new MatArena()) {
+            currentFrameSink.show(identify(frame.rawImage, frame.melds, frameArena));
+        } finally {
+            if (frame.melds != null) {
+                frame.melds.release();
             }
         }
+        identifyProcessor.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        stage.commit();
+    }
 
-        BufferedImage finalImage = null;
-        try {
-            finalImage = Utils.mat2BufferedImage(newImage);
-        } catch (IOException e) {
-            e.printStackTrace();
+    //shows each stage's latency, at most every STREAM_STATS_INTERVAL_MILLIS
+    private void showStreamStats() {
+        FrameStream<MeldedFrame> frameStream = this.frameStream;
+        long now = System.currentTimeMillis();
+        if (frameStream == null || now - lastStreamStatsMillis < STREAM_STATS_INTERVAL_MILLIS) {
             return;
         }
-        final AtomicReference<WritableImage> ref = new AtomicReference<>();
-        ref.set(SwingFXUtils.toFXImage(finalImage, ref.get()));
-        finalImage.flush();
+        lastStreamStatsMillis = now;
 
-        Utils.onFXThread(currentFrame.imageProperty(), ref.get());
+        StringJoiner text = new StringJoiner(", ");
+        frameStream.stats().forEach(stats -> text.add(stats.toString()));
+        text.add("capturing every " + frameStream.captureIntervalMillis() + " ms");
+        text.add(String.format("%.1f MB native in open arenas", MatArena.liveBytes() / 1e6));
+        Platform.runLater(() -> streamStats.setText(text.toString()));
     }
 
-    public void onSnap() {
+    /**
+     *
+     * @return the current webcam frame (standardized), or the dropped image if there's no webcam. Null if there's
+     * neither.
+     */
+    private Mat captureFrame() {
         //if there's no webcam selected and there's a dropped image, resnap the dropped image
-        if (webcamSelection.getValue() == null && droppedImage != null) {
-            updateImage(droppedImage);
-        } else if (webcamSelection.getValue() != null) {
-            //use the webcam
-            BufferedImage img = webcamSelection.getValue().webcam.getImage();
-            Mat mat = null;
-            try {
-                mat = Utils.bufferedImage2StandardizedMat(img, false);
-            } catch (IOException e) {
-                e.printStackTrace();
-                return;
+        IndexedWebcam webcam = selectedWebcam;
+        if (webcam == null) {
+            return droppedImage;
+        }
+
+        //snaps can come from the stream or the UI, so only one converts at a time
+        synchronized (frameConverter) {
+            Mat frame = frameConverter.grab(webcam.webcam);
+            if (frame == null) {
+                return null;
             }
-            updateImage(mat);
+            //the frame needs copying out of the converter's reused Mat, which standardizing already does
+            Mat prepared = pipeline.prepareFrame(frame);
+            return prepared == frame ? frame.clone() : prepared;
+        }
+    }
+
+    public void onSnap() {
+        //the stream owns the stages while it's running
+        if (stream) {
+            return;
+        }
+        var captured = new TraceEvents.FrameCaptured();
+        captured.begin();
+        Mat frame = captureFrame();
+        if (frame != null) {
+            long frameId = TraceEvents.nextFrameId();
+            captured.commit(frameId, frame);
+            updateImage(frame, frameId);
         }
     }
 
@@ -431,65 +576,34 @@ public class MainController {
 
         reinitializeReferences(meld);
 
-        BufferedImage finalImage = null;
-        try {
-            finalImage = Utils.mat2BufferedImage(mat);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return;
-        }
-        final AtomicReference<WritableImage> ref = new AtomicReference<>();
-        ref.set(SwingFXUtils.toFXImage(finalImage, ref.get()));
-        finalImage.flush();
-
-        Utils.onFXThread(meldReferenceView.imageProperty(), ref.get());
-
+        meldReferenceSink.show(mat);
     }
 
     public void onDisplayReference() {
 
-        Mat mat = referenceSelection.getSelectionModel().getSelectedItem().mat;
+        Mat mat = referenceSelection.getSelectionModel().getSelectedItem().reference.image;
 
-        BufferedImage finalImage = null;
-        try {
-            finalImage = Utils.mat2BufferedImage(mat);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return;
-        }
-        final AtomicReference<WritableImage> ref = new AtomicReference<>();
-        ref.set(SwingFXUtils.toFXImage(finalImage, ref.get()));
-        finalImage.flush();
-
-        Utils.onFXThread(meldReferenceView.imageProperty(), ref.get());
+        meldReferenceSink.show(mat);
     }
 
     public void onDisplayMatches() {
         MatBox meldBox = meldSelection.getSelectionModel().getSelectedItem().meld;
-        Mat meld = meldBox.getMat();
-        Mat reference = referenceSelection.getSelectionModel().getSelectedItem().mat;
-
-        Mat matchImg = identifier.drawMatches(meld, reference);
+        ReferenceFeatures reference = referenceSelection.getSelectionModel().getSelectedItem().reference;
 
-        if (matchImg == null) {
-            return;
+        //reuse the features from the last identification if we have them
+        MeldFeatures meld = identifier.meldFeatures != null ? identifier.meldFeatures.get(meldBox) : null;
+        if (meld == null) {
+            meld = identifier.extractFeatures(meldBox);
         }
 
-        BufferedImage finalImage = null;
+        Mat matchImg = identifier.drawMatches(meld, reference);
 
-        try {
-            finalImage = Utils.mat2BufferedImage(matchImg);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (matchImg == null) {
             return;
         }
-        final AtomicReference<WritableImage> ref = new AtomicReference<>();
-        ref.set(SwingFXUtils.toFXImage(finalImage, ref.get()));
-        finalImage.flush();
-
-        Utils.onFXThread(meldReferenceView.imageProperty(), ref.get());
-
 
+        meldReferenceSink.show(matchImg);
+        matchImg.release();
     }
 
     //Triggers on Save button in rightmost region in UI
@@ -553,11 +667,15 @@ public class MainController {
 
     private class MatProcessor {
         public String name;
-        public Function<Mat, Mat> preprocess;
+        //takes the output of the previous stage and the arena of the frame
+        public BiFunction<Mat, MatArena, Mat> preprocess;
+        //registered up front, so timing a stage doesn't look anything up
+        public Timer timer;
 
-        public MatProcessor(String name, Function<Mat, Mat> preprocess) {
+        public MatProcessor(String name, BiFunction<Mat, MatArena, Mat> preprocess) {
             this.name = name;
             this.preprocess = preprocess;
+            this.timer = metrics.stage(name);
         }
 
         @Override
@@ -581,13 +699,51 @@ public class MainController {
         }
     }
 
+    //a frame along with the images of the melds found in it, ready to identify
+    private static class MeldedFrame {
+        public final Mat rawImage;
+        //null if the melds weren't found
+        public final MeldImages melds;
+        public final long frameId;
+
+        public MeldedFrame(Mat rawImage, MeldImages melds, long frameId) {
+            this.rawImage = rawImage;
+            this.melds = melds;
+            this.frameId = frameId;
+        }
+    }
+
+    //the images of a frame's melds, shared by identify and the meld selection. They are released once neither
+    //holds them anymore.
+    private static class MeldImages {
+        public final List<MatBox> melds;
+        private final MatArena arena = new MatArena();
+        //starts out held by the pass which built them
+        private final AtomicInteger holders = new AtomicInteger(1);
+
+        public MeldImages(List<MatBox> melds) {
+            this.melds = melds;
+            melds.forEach(meld -> arena.track("MainController.MeldImages/meld", meld.getMat()));
+        }
+
+        public void retain() {
+            holders.incrementAndGet();
+        }
+
+        public void release() {
+            if (holders.decrementAndGet() == 0) {
+                arena.close();
+            }
+        }
+    }
+
     private class ReferenceImage {
         public String name;
-        public Mat mat;
+        public ReferenceFeatures reference;
 
-        public ReferenceImage(String name, Mat mat) {
+        public ReferenceImage(String name, ReferenceFeatures reference) {
             this.name = name;
-            this.mat = mat;
+            this.reference = reference;
         }
 
         @Override
@@ -0,0 +1,161 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scope for the temporary Mats of a frame (or of a single step). Mats tracked by the arena are released when it
+ * is closed, rather than holding their native memory until the GC gets around to finalizing them.
+ *
+ * Each tracked Mat is tagged with its allocation site, so the live native memory (held by open arenas) and the
+ * totals allocated and released can be reported per site.
+ *
+ * Usage:
+ * <pre>
+ * try (MatArena arena = new MatArena()) {
+ *     Mat gray = arena.newMat("grayscale");
+ *     ...
+ * }
+ * </pre>
+ */
+public class MatArena implements AutoCloseable {
+    private static final Set<MatArena> openArenas = ConcurrentHashMap.newKeySet();
+    private static final Map<String, SiteCounters> siteCounters = new ConcurrentHashMap<>();
+
+    private final List<Mat> mats = new ArrayList<>();
+    private final List<String> sites = new ArrayList<>();
+    private boolean closed;
+
+    public MatArena() {
+        openArenas.add(this);
+    }
+
+    /**
+     * Releases mat when this arena is closed
+     *
+     * @param site where the mat was allocated, i.e. "Pipeline.contours/hull"
+     * @return mat
+     */
+    public synchronized <T extends Mat> T track(String site, T mat) {
+        if (closed) {
+            throw new IllegalStateException("Arena is already closed");
+        }
+        mats.add(mat);
+        sites.add(site);
+        siteCounters.computeIfAbsent(site, s -> new SiteCounters()).allocated.incrementAndGet();
+        return mat;
+    }
+
+    /**
+     *
+     * @param site where the mat was allocated
+     * @return a new empty Mat, released when this arena is closed
+     */
+    public Mat newMat(String site) {
+        return track(site, new Mat());
+    }
+
+    /**
+     * Releases every Mat tracked by this arena
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        openArenas.remove(this);
+        for (int i = 0; i < mats.size(); i++) {
+            Mat mat = mats.get(i);
+            SiteCounters counters = siteCounters.get(sites.get(i));
+            counters.releasedBytes.addAndGet(nativeBytes(mat));
+            mat.release();
+        }
+        mats.clear();
+        sites.clear();
+    }
+
+    private static long nativeBytes(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    /**
+     * Native memory of the Mats allocated at a single site
+     */
+    public static class SiteStats {
+        public final String site;
+        /**
+         * Mats from this site held by open arenas
+         */
+        public final long liveCount;
+        /**
+         * native bytes of the Mats from this site held by open arenas
+         */
+        public final long liveBytes;
+        /**
+         * Mats from this site ever tracked
+         */
+        public final long allocatedCount;
+        /**
+         * native bytes freed by releasing Mats from this site
+         */
+        public final long releasedBytes;
+
+        public SiteStats(String site, long liveCount, long liveBytes, long allocatedCount, long releasedBytes) {
+            this.site = site;
+            this.liveCount = liveCount;
+            this.liveBytes = liveBytes;
+            this.allocatedCount = allocatedCount;
+            this.releasedBytes = releasedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d live (%d bytes), %d allocated, %d bytes released",
+                    site, liveCount, liveBytes, allocatedCount, releasedBytes);
+        }
+    }
+
+    /**
+     *
+     * @return stats of every allocation site, by site
+     */
+    public static Map<String, SiteStats> stats() {
+        var liveCounts = new TreeMap<String, Long>();
+        var liveBytes = new TreeMap<String, Long>();
+        for (MatArena arena : openArenas) {
+            synchronized (arena) {
+                for (int i = 0; i < arena.mats.size(); i++) {
+                    liveCounts.merge(arena.sites.get(i), 1L, Long::sum);
+                    liveBytes.merge(arena.sites.get(i), nativeBytes(arena.mats.get(i)), Long::sum);
+                }
+            }
+        }
+
+        var stats = new TreeMap<String, SiteStats>();
+        siteCounters.forEach((site, counters) -> stats.put(site, new SiteStats(site,
+                liveCounts.getOrDefault(site, 0L), liveBytes.getOrDefault(site, 0L),
+                counters.allocated.get(), counters.releasedBytes.get())));
+        return stats;
+    }
+
+    /**
+     *
+     * @return native bytes of every Mat held by open arenas
+     */
+    public static long liveBytes() {
+        return stats().values().stream().mapToLong(stats -> stats.liveBytes).sum();
+    }
+
+    private static class SiteCounters {
+        private final AtomicLong allocated = new AtomicLong();
+        private final AtomicLong releasedBytes = new AtomicLong();
+    }
+}
@@ -9,10 +9,33 @@ import org.opencv.core.Rect;
  */
 public class MatBox extends Box {
     private Mat mat;
+    /**
+     * frame the meld is from, for tracing. -1 if it isn't from a frame.
+     */
+    public final long frameId;
+    /**
+     * index of the meld within its frame, for tracing
+     */
+    public final int meldId;
+    /**
+     * region of the Mat inside the box, i.e. without the padding taken around it
+     */
+    public final Rect content;
 
     protected MatBox(Rect rect, Mat mat) {
+        this(rect, mat, -1, 0);
+    }
+
+    protected MatBox(Rect rect, Mat mat, long frameId, int meldId) {
+        this(rect, mat, new Rect(0, 0, mat.width(), mat.height()), frameId, meldId);
+    }
+
+    protected MatBox(Rect rect, Mat mat, Rect content, long frameId, int meldId) {
         super(rect);
         this.mat = mat;
+        this.content = content;
+        this.frameId = frameId;
+        this.meldId = meldId;
     }
 
     /**
@@ -20,9 +43,11 @@ public class MatBox extends Box {
      * @param box box to use
      * @param srcImage src image that box is selecting a region within
      * @param padding padding to include around box when getting the image
+     * @param frameId frame srcImage is
+     * @param meldId index of the box within the frame
      * @return a MatBox whose Mat is taken from the region in srcImage that box is selecting.
      */
-    public static MatBox fromImage(Box box, Mat srcImage, int padding) {
+    public static MatBox fromImage(Box box, Mat srcImage, int padding, long frameId, int meldId) {
         //note: using math.min/max to avoid having a box that extends past the edges of the src image
         int startX = Math.max(0, box.rect.x - padding);
         int startY = Math.max(0, box.rect.y - padding);
@@ -30,7 +55,19 @@ public class MatBox extends Box {
         int endY = Math.min(srcImage.height(), box.endY + padding);
         Rect paddedRect = new Rect(startX, startY, endX - startX, endY - startY);
         Mat mat = srcImage.submat(paddedRect);
-        return new MatBox(box.rect, mat);
+        return new MatBox(box.rect, mat, content(box.rect, paddedRect), frameId, meldId);
+    }
+
+    /**
+     *
+     * @param box region of an image
+     * @param paddedRect region of the image taken for box, including its padding
+     * @return region of the padded image inside box
+     */
+    static Rect content(Rect box, Rect paddedRect) {
+        int x = box.x - paddedRect.x;
+        int y = box.y - paddedRect.y;
+        return new Rect(x, y, Math.min(box.width, paddedRect.width - x), Math.min(box.height, paddedRect.height - y));
     }
 
     /**
@@ -0,0 +1,25 @@
+package com.chairbender.mahjongeye;
+
+/**
+ * How melds are matched against the reference images
+ */
+public enum MatchingMode {
+    /**
+     * Each meld is matched against each reference separately, and every reference with enough
+     * good matches has its homography checked.
+     */
+    PER_REFERENCE,
+    /**
+     * Each meld is matched once against a single index over the descriptors of every reference. Each
+     * good match is a vote for the reference it came from, and only the references with the most
+     * votes have their homography checked.
+     */
+    GLOBAL,
+    /**
+     * Like PER_REFERENCE, but the good matches with every reference are counted before any homography is checked.
+     * Since a reference can't have more inliers than good matches, homographies are checked in order of good
+     * matches (ties going to the references which won most often recently), stopping once no remaining reference
+     * could beat the best inlier count so far.
+     */
+    BRANCH_AND_BOUND
+}
@@ -0,0 +1,118 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the melds of a frame which look the same (i.e. the copies of a tile in a hand or discard pond), so only
+ * one meld of each group needs to be identified.
+ *
+ * Each meld is turned upright, downsampled to a grayscale thumbnail and stretched to the full range of
+ * brightness, so copies of a tile lit a little differently still look the same. A meld joins the cluster whose
+ * representative (its first meld) has the most similar thumbnail and aspect ratio, or starts a new cluster if
+ * none are close enough.
+ */
+public class MeldClusters {
+    //size melds are downsampled to before comparing them
+    private static final Size THUMBNAIL_SIZE = new Size(16, 16);
+    //maximum ratio between the (upright) aspect ratios of melds in the same cluster
+    private static final double MAX_ASPECT_RATIO_CHANGE = 1.2;
+
+    private MeldClusters() {
+    }
+
+    /**
+     * Melds which look the same
+     */
+    public static class Cluster {
+        /**
+         * meld identified on behalf of the cluster
+         */
+        public final MatBox representative;
+        /**
+         * the other melds of the cluster, with the mean difference (0 - 255) between their thumbnail and the
+         * representative's
+         */
+        public final Map<MatBox, Double> members = new LinkedHashMap<>();
+
+        private final Mat thumbnail;
+        private final double aspectRatio;
+
+        private Cluster(MatBox representative, Mat thumbnail, double aspectRatio) {
+            this.representative = representative;
+            this.thumbnail = thumbnail;
+            this.aspectRatio = aspectRatio;
+        }
+    }
+
+    /**
+     *
+     * @param melds melds to cluster
+     * @param maxDifference maximum mean difference (0 - 255) between the thumbnails of a meld and a representative
+     *                      for the meld to join its cluster
+     * @return clusters, in the order their representatives appear in melds. Every meld is in exactly one.
+     */
+    public static List<Cluster> cluster(List<MatBox> melds, double maxDifference) {
+        var clusters = new ArrayList<Cluster>();
+        try (MatArena arena = new MatArena()) {
+            Mat diff = arena.newMat("MeldClusters.cluster/diff");
+            for (MatBox meld : melds) {
+                Mat image = meld.getMat();
+                double aspectRatio = (double) Math.max(image.width(), image.height())
+                        / Math.max(1, Math.min(image.width(), image.height()));
+                Mat thumbnail = thumbnail(image, arena);
+
+                Cluster closest = null;
+                double closestDifference = maxDifference;
+                for (Cluster cluster : clusters) {
+                    if (Math.max(aspectRatio, cluster.aspectRatio) / Math.min(aspectRatio, cluster.aspectRatio) > MAX_ASPECT_RATIO_CHANGE) {
+                        continue;
+                    }
+                    double difference = difference(thumbnail, cluster.thumbnail, diff);
+                    if (difference <= closestDifference) {
+                        closest = cluster;
+                        closestDifference = difference;
+                    }
+                }
+
+                if (closest == null) {
+                    clusters.add(new Cluster(meld, thumbnail, aspectRatio));
+                } else {
+                    closest.members.put(meld, closestDifference);
+                }
+            }
+        }
+        return clusters;
+    }
+
+    private static Mat thumbnail(Mat image, MatArena arena) {
+        Mat gray = image;
+        if (image.channels() != 1) {
+            gray = arena.newMat("MeldClusters.thumbnail/gray");
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        }
+        if (gray.width() > gray.height()) {
+            Mat upright = arena.newMat("MeldClusters.thumbnail/upright");
+            Core.rotate(gray, upright, Core.ROTATE_90_CLOCKWISE);
+            gray = upright;
+        }
+        Mat small = arena.newMat("MeldClusters.thumbnail/small");
+        Imgproc.resize(gray, small, THUMBNAIL_SIZE, 0, 0, Imgproc.INTER_AREA);
+        Mat thumbnail = arena.newMat("MeldClusters.thumbnail/normalized");
+        Core.normalize(small, thumbnail, 0, 255, Core.NORM_MINMAX);
+        return thumbnail;
+    }
+
+    //mean absolute difference between the thumbnails' pixels
+    private static double difference(Mat thumbnail, Mat other, Mat diff) {
+        Core.absdiff(thumbnail, other, diff);
+        return Core.mean(diff).val[0];
+    }
+}
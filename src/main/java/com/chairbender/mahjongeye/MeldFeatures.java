@@ -0,0 +1,29 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+/**
+ * Keypoints and descriptors extracted from a meld's image. Extracted once per meld so they can be
+ * compared against every reference (and reused when displaying matches) without being recomputed.
+ */
+public class MeldFeatures {
+    /**
+     * meld the features were extracted from
+     */
+    public final MatBox meld;
+    /**
+     * keypoints detected in the meld's image
+     */
+    public final MatOfKeyPoint keypoints;
+    /**
+     * descriptors of each keypoint, row i corresponds to keypoint i
+     */
+    public final Mat descriptors;
+
+    public MeldFeatures(MatBox meld, MatOfKeyPoint keypoints, Mat descriptors) {
+        this.meld = meld;
+        this.keypoints = keypoints;
+        this.descriptors = descriptors;
+    }
+}
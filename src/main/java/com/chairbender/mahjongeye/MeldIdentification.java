@@ -0,0 +1,73 @@
+package com.chairbender.mahjongeye;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Simple POJO holding the outcome of identifying a single meld
+ */
+public class MeldIdentification {
+    /**
+     * meld that was identified
+     */
+    public final MatBox meld;
+    /**
+     * features extracted from the meld, null if the label was remembered by the label cache, copied from an
+     * identical meld in the same frame, kept from the previous frame by the tracker or the meld was split into tiles
+     */
+    public final MeldFeatures features;
+    /**
+     * name of the reference with the most inliers, null if no reference had any inliers. For a meld split into
+     * tiles, the labels of its tiles separated by spaces ("?" for tiles without one).
+     */
+    public final String label;
+    /**
+     * inliers of the best reference, 0 if there was none. For a meld split into tiles, the fewest of any tile.
+     */
+    public final long inlierCount;
+    /**
+     * inliers of every reference which had any
+     */
+    public final Map<ReferenceFeatures, Long> referenceInliers;
+    /**
+     * identifications of each tile the meld was split into, in order along the meld. Empty if it wasn't split.
+     * The images of the tiles are released after they are identified.
+     */
+    public final List<MeldIdentification> tiles;
+
+    public MeldIdentification(MatBox meld, MeldFeatures features, String label, long inlierCount,
+                              Map<ReferenceFeatures, Long> referenceInliers) {
+        this(meld, features, label, inlierCount, referenceInliers, Collections.emptyList());
+    }
+
+    public MeldIdentification(MatBox meld, MeldFeatures features, String label, long inlierCount,
+                              Map<ReferenceFeatures, Long> referenceInliers, List<MeldIdentification> tiles) {
+        this.meld = meld;
+        this.features = features;
+        this.label = label;
+        this.inlierCount = inlierCount;
+        this.referenceInliers = referenceInliers;
+        this.tiles = tiles;
+    }
+
+    /**
+     *
+     * @param meld meld which was split
+     * @param tiles identifications of its tiles, in order along the meld
+     * @return identification of the meld made up of its tiles'
+     */
+    public static MeldIdentification ofTiles(MatBox meld, List<MeldIdentification> tiles) {
+        boolean identified = tiles.stream().anyMatch(tile -> tile.label != null);
+        String label = identified ? tiles.stream().map(tile -> tile.label == null ? "?" : tile.label)
+                .collect(Collectors.joining(" ")) : null;
+        long inlierCount = tiles.stream().mapToLong(tile -> tile.inlierCount).min().orElse(0);
+        var referenceInliers = new HashMap<ReferenceFeatures, Long>();
+        for (MeldIdentification tile : tiles) {
+            tile.referenceInliers.forEach((reference, inliers) -> referenceInliers.merge(reference, inliers, Math::max));
+        }
+        return new MeldIdentification(meld, null, label, inlierCount, referenceInliers, tiles);
+    }
+}
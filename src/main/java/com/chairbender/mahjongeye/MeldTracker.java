@@ -0,0 +1,177 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks melds across the frames of a stream, so melds which haven't changed don't need to be identified again.
+ *
+ * Each meld is matched to the meld from the previous frame it overlaps the most (by intersection over union).
+ * If a downsampled copy of its pixels is nearly the same as the previous meld's, it keeps the previous
+ * identification. If it changed, it is first checked against just the reference it was previously identified as,
+ * and only searched against every reference if it doesn't match that anymore. Changed melds which were split into
+ * tiles are always searched, since their tiles may have moved.
+ *
+ * Not thread safe, use one tracker per stream.
+ */
+public class MeldTracker {
+    //size melds are downsampled to before comparing them
+    private static final Size THUMBNAIL_SIZE = new Size(16, 16);
+    //fraction of its previous inliers a changed meld must still have with its previous reference to keep its label
+    private static final double RECHECK_INLIER_RATIO = 0.5;
+
+    private final double minIou;
+    private final double maxDifference;
+    private final PipelineMetrics metrics;
+    private List<Track> tracks = new ArrayList<>();
+
+    /**
+     *
+     * @param minIou minimum intersection over union for a meld to be considered the same as one in the last frame
+     * @param maxDifference maximum mean difference (0 - 255) between the grayscale thumbnails of a meld and its
+     *                      previous meld for it to be considered unchanged
+     * @param metrics metrics to count the unchanged, rechecked and searched melds in
+     */
+    public MeldTracker(double minIou, double maxDifference, PipelineMetrics metrics) {
+        this.minIou = minIou;
+        this.maxDifference = maxDifference;
+        this.metrics = metrics;
+    }
+
+    //a meld from the last frame
+    private static class Track {
+        private final Box box;
+        private final Mat thumbnail;
+        private final MeldIdentification identification;
+
+        private Track(Box box, Mat thumbnail, MeldIdentification identification) {
+            this.box = box;
+            this.thumbnail = thumbnail;
+            this.identification = identification;
+        }
+    }
+
+    /**
+     * Identifies the melds of the next frame, reusing the identifications of the last frame where possible
+     *
+     * @param melds melds of the next frame
+     * @param identifier identifier to use for melds which changed
+     * @return map from each meld to its identification, in the same order as melds. Melds whose
+     * identification failed are omitted.
+     */
+    public Map<MatBox, MeldIdentification> identify(List<MatBox> melds, Identifier identifier) {
+        var unchanged = new LinkedHashMap<MatBox, MeldIdentification>();
+        var toRecheck = new LinkedHashMap<MatBox, String>();
+        var previousInliers = new LinkedHashMap<MatBox, Long>();
+        var toSearch = new ArrayList<MatBox>();
+        var thumbnails = new LinkedHashMap<MatBox, Mat>();
+
+        var unmatched = new ArrayList<>(tracks);
+        for (MatBox meld : melds) {
+            Mat thumbnail = thumbnail(meld.getMat());
+            thumbnails.put(meld, thumbnail);
+
+            Track track = closestTrack(meld, unmatched);
+            if (track == null) {
+                toSearch.add(meld);
+                continue;
+            }
+            unmatched.remove(track);
+
+            MeldIdentification previous = track.identification;
+            if (difference(thumbnail, track.thumbnail) <= maxDifference) {
+                //the previous features point at the previous frame's image, which is released by now. They're
+                //extracted again if the matches are displayed.
+                unchanged.put(meld, new MeldIdentification(meld, null, previous.label,
+                        previous.inlierCount, previous.referenceInliers, previous.tiles));
+            } else if (previous.label != null && previous.tiles.isEmpty()) {
+                toRecheck.put(meld, previous.label);
+                previousInliers.put(meld, previous.inlierCount);
+            } else {
+                toSearch.add(meld);
+            }
+        }
+
+        var identifications = new LinkedHashMap<MatBox, MeldIdentification>();
+        for (var recheck : identifier.recheckMelds(toRecheck).values()) {
+            if (recheck.label != null && recheck.inlierCount >= previousInliers.get(recheck.meld) * RECHECK_INLIER_RATIO) {
+                identifications.put(recheck.meld, recheck);
+            } else {
+                //not the same tile anymore
+                toSearch.add(recheck.meld);
+            }
+        }
+        identifications.putAll(identifier.identifyMelds(toSearch));
+        identifications.putAll(unchanged);
+
+        metrics.meldsTracked(unchanged.size(), toRecheck.size(), toSearch.size());
+
+        //the melds of this frame become the tracks for the next
+        tracks.forEach(track -> track.thumbnail.release());
+        var result = new LinkedHashMap<MatBox, MeldIdentification>();
+        var nextTracks = new ArrayList<Track>();
+        for (MatBox meld : melds) {
+            MeldIdentification identification = identifications.get(meld);
+            if (identification == null) {
+                thumbnails.get(meld).release();
+                continue;
+            }
+            result.put(meld, identification);
+            nextTracks.add(new Track(meld, thumbnails.get(meld), identification));
+        }
+        tracks = nextTracks;
+
+        return result;
+    }
+
+    /**
+     * Forgets every meld, so the next frame is identified from scratch
+     */
+    public void reset() {
+        tracks.forEach(track -> track.thumbnail.release());
+        tracks = new ArrayList<>();
+    }
+
+    //the track overlapping box the most, null if none overlap it enough
+    private Track closestTrack(Box box, List<Track> candidates) {
+        Track closest = null;
+        double closestIou = minIou;
+        for (Track track : candidates) {
+            double iou = box.iou(track.box);
+            if (iou >= closestIou) {
+                closest = track;
+                closestIou = iou;
+            }
+        }
+        return closest;
+    }
+
+    private static Mat thumbnail(Mat image) {
+        Mat gray = new Mat();
+        if (image.channels() == 1) {
+            image.copyTo(gray);
+        } else {
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        }
+        Mat thumbnail = new Mat();
+        Imgproc.resize(gray, thumbnail, THUMBNAIL_SIZE, 0, 0, Imgproc.INTER_AREA);
+        gray.release();
+        return thumbnail;
+    }
+
+    //mean absolute difference between the thumbnails' pixels
+    private static double difference(Mat thumbnail, Mat other) {
+        Mat diff = new Mat();
+        Core.absdiff(thumbnail, other, diff);
+        double difference = Core.mean(diff).val[0];
+        diff.release();
+        return difference;
+    }
+}
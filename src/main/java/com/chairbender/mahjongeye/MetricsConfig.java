@@ -0,0 +1,31 @@
+package com.chairbender.mahjongeye;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Metrics of the pipeline, kept in the Prometheus format so MetricsEndpoint can serve them
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public PrometheusMeterRegistry meterRegistry() {
+        return new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    }
+
+    @Bean
+    public PipelineMetrics pipelineMetrics(MeterRegistry meterRegistry, ExecutorService identificationExecutor) {
+        //queued and running tasks of the identification executor
+        new ExecutorServiceMetrics(identificationExecutor, "identification", Collections.emptyList())
+                .bindTo(meterRegistry);
+        return new PipelineMetrics(meterRegistry);
+    }
+}
@@ -0,0 +1,63 @@
+package com.chairbender.mahjongeye;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the metrics in the Prometheus text format at http://localhost:{metricsPort}/metrics. The app isn't
+ * a web app, so this uses the JDK's http server rather than pulling in a servlet container.
+ */
+@Component
+public class MetricsEndpoint {
+
+    @Autowired
+    private MahjongEyeConfig config;
+    @Autowired
+    private PrometheusMeterRegistry meterRegistry;
+
+    private HttpServer server;
+
+    @PostConstruct
+    private void start() {
+        if (config.getMetricsPort() == null) {
+            return;
+        }
+
+        try {
+            //only reachable from this machine
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.getMetricsPort()), 0);
+        } catch (IOException e) {
+            //i.e. the port is taken by another instance, which isn't a reason not to run
+            System.out.println("Could not serve metrics on port " + config.getMetricsPort() + ": " + e);
+            return;
+        }
+        server.createContext("/metrics", exchange -> {
+            byte[] body = meterRegistry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+        System.out.println("Serving metrics at http://localhost:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    @PreDestroy
+    private void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The stages of the detection pipeline (grayscale -> threshold -> contour -> meld -> identify),
+ * independent of the UI so they can also be run headless.
+ *
+ * None of the stages hold any state (beyond per-thread scratch buffers), so they are safe to call concurrently.
+ */
+@Component
+public class Pipeline {
+    //TODO: Configurable padding
+    private static final int MELD_PADDING = 5;
+
+    @Autowired
+    private Identifier identifier;
+    @Autowired
+    private PipelineMetrics metrics;
+    @Autowired
+    private MahjongEyeConfig config;
+
+    //box buffers are reused between frames, one pair per thread so the stages stay safe to call concurrently
+    private final ThreadLocal<BoxBuffer> contourBoxes = ThreadLocal.withInitial(() -> new BoxBuffer(256));
+    private final ThreadLocal<BoxBuffer> meldBoxes = ThreadLocal.withInitial(() -> new BoxBuffer(64));
+
+    public Pipeline() {
+    }
+
+    /**
+     * Creates a pipeline outside of spring (i.e. for benchmarks), which can run every stage but identify
+     */
+    Pipeline(PipelineMetrics metrics, MahjongEyeConfig config) {
+        this.metrics = metrics;
+        this.config = config;
+    }
+
+    /**
+     * Runs every stage on the frame
+     *
+     * @param rawImage frame, from prepareFrame
+     * @param frameId id of the frame, for tracing
+     * @param settings parameters of the stages, for standard size frames
+     * @return everything calculated for the frame
+     */
+    public FrameResult process(Mat rawImage, long frameId, PipelineSettings settings) {
+        settings = segmentationSettings(settings, rawImage);
+        List<MatOfPoint> contours;
+        try (MatArena arena = new MatArena()) {
+            var stage = TraceEvents.stage(frameId, "grayscale");
+            Mat gray = arena.track("Pipeline.process/grayscale", segmentationGrayscale(rawImage));
+            stage.commit();
+            stage = TraceEvents.stage(frameId, "threshold");
+            Mat thresholded = arena.track("Pipeline.process/threshold", threshold(gray));
+            stage.commit();
+            stage = TraceEvents.stage(frameId, "contour");
+            contours = contours(thresholded, settings);
+            stage.commit();
+        }
+        var stage = TraceEvents.stage(frameId, "meld");
+        MeldResult melds = meld(contours, settings);
+        stage.commit();
+        stage = TraceEvents.stage(frameId, "identify");
+        long identifyStart = System.nanoTime();
+        var identifications = identifier.identifyMelds(meldImages(melds, rawImage, frameId));
+        metrics.recordIdentify(identifyStart);
+        stage.commit();
+        return new FrameResult(rawImage, contours, melds, identifications);
+    }
+
+    /**
+     *
+     * @param frame frame as captured. Not modified.
+     * @return the frame the pipeline works on - standardized in the STANDARDIZED resolution mode, otherwise frame
+     * itself
+     */
+    public Mat prepareFrame(Mat frame) {
+        return config.getResolutionMode() == ResolutionMode.STANDARDIZED ? Utils.standardize(frame, false) : frame;
+    }
+
+    /**
+     *
+     * @param rawImage frame, from prepareFrame
+     * @return the frame's size when it's segmented, relative to its size
+     */
+    public double segmentationScale(Mat rawImage) {
+        if (config.getResolutionMode() == ResolutionMode.STANDARDIZED) {
+            return 1;
+        }
+        return Math.min(1, (double) config.getSegmentationMaxSize() / Math.max(rawImage.width(), rawImage.height()));
+    }
+
+    /**
+     *
+     * @param settings settings for standard size frames
+     * @param rawImage frame, from prepareFrame
+     * @return the settings for segmenting the frame
+     */
+    public PipelineSettings segmentationSettings(PipelineSettings settings, Mat rawImage) {
+        if (config.getResolutionMode() == ResolutionMode.STANDARDIZED) {
+            return settings;
+        }
+        //size of the segmented frame relative to the standard size
+        return settings.scaled(segmentationScale(rawImage) / Utils.standardScale(rawImage, false));
+    }
+
+    /**
+     *
+     * @param rawImage frame, from prepareFrame
+     * @return grayscale of the frame, at the size it's segmented at
+     */
+    public Mat segmentationGrayscale(Mat rawImage) {
+        double scale = segmentationScale(rawImage);
+        if (scale == 1) {
+            return grayscale(rawImage);
+        }
+        try (MatArena arena = new MatArena()) {
+            Mat reduced = arena.newMat("Pipeline.segmentationGrayscale/reduced");
+            Imgproc.resize(rawImage, reduced, new Size(0, 0), scale, scale, Imgproc.INTER_AREA);
+            return grayscale(reduced);
+        }
+    }
+
+    public Mat grayscale(Mat src) {
+        var dst = new Mat();
+        Imgproc.cvtColor(src, dst, Imgproc.COLOR_BGR2GRAY);
+        return dst;
+    }
+
+    public Mat threshold(Mat src) {
+        var dst = new Mat();
+        //Imgproc.adaptiveThreshold(src, dst, 255.0, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY_INV,
+        //        Integer.parseInt(blockSize.getText()), Integer.parseInt(thresholdC.getText()));
+        Imgproc.threshold(src, dst, 0, 255, Imgproc.THRESH_BINARY_INV + Imgproc.THRESH_OTSU);
+        return dst;
+    }
+
+    /**
+     *
+     * @param src thresholded image
+     * @return the contours in src, filtered by area, approximated and replaced with their convex hulls
+     */
+    public List<MatOfPoint> contours(Mat src, PipelineSettings settings) {
+        //everything but the hulls is temporary
+        try (MatArena arena = new MatArena()) {
+            var hierarchy = arena.newMat("Pipeline.contours/hierarchy");
+            List<MatOfPoint> contours = new ArrayList<>();
+            Imgproc.findContours(src, contours, hierarchy, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE);
+            contours.forEach(cont -> arena.track("Pipeline.contours/found", cont));
+            //filter out contours by area
+            int min = settings.minContourArea;
+            int max = settings.maxContourArea;
+            List<MatOfPoint> hulls = contours.stream()
+                    //min / max area
+                    .filter(cont -> {
+                        var area = Imgproc.contourArea(cont);
+                        return area > min && area < max;
+                    })
+                    //contour approximation
+                    .map( cont -> {
+                        MatOfPoint2f approx = arena.track("Pipeline.contours/approx", new MatOfPoint2f());
+                        Imgproc.approxPolyDP(arena.track("Pipeline.contours/approxInput", new MatOfPoint2f(cont.toArray())),
+                                approx, settings.contourApproxEpsilon, true);
+                        return arena.track("Pipeline.contours/approxPoints", new MatOfPoint(approx.toArray()));
+                    })
+                    //convex hull
+                    .map( cont -> {
+                        MatOfInt hull = arena.track("Pipeline.contours/hullIndexes", new MatOfInt());
+                        Imgproc.convexHull(cont, hull);
+                        return convertIndexesToPoints(cont, hull);
+                    })
+                    //remove empty contours
+                    .filter(cont -> !cont.empty())
+                    .collect(Collectors.toList());
+            metrics.recordContours(hulls.size());
+            return hulls;
+        }
+    }
+
+    /**
+     *
+     * @return the melds of the boxes bounding each contour
+     */
+    public MeldResult meld(List<MatOfPoint> contours, PipelineSettings settings) {
+        //convert contours into boxes
+        BoxBuffer boxes = contourBoxes.get();
+        Box.boundingContours(contours, boxes);
+        BoxBuffer melds = meldBoxes.get();
+        var melded = boxes.meldAdjacent(settings.meldThreshold, melds);
+        metrics.recordMelds(melds.size());
+        return new MeldResult(melds.toBoxes(), melded);
+    }
+
+    /**
+     *
+     * @param melds melds in the segmented frame
+     * @param rawImage frame, from prepareFrame
+     * @param frameId id of rawImage's frame, for tracing
+     * @return the region of rawImage inside each meld, at the standard scale. The boxes are in rawImage's
+     * coordinates.
+     */
+    public List<MatBox> meldImages(MeldResult melds, Mat rawImage, long frameId) {
+        List<MatBox> images = new ArrayList<>(melds.melds.size());
+        if (config.getResolutionMode() == ResolutionMode.STANDARDIZED) {
+            for (Box box : melds.melds) {
+                images.add(MatBox.fromImage(box, rawImage, MELD_PADDING, frameId, images.size()));
+            }
+            return images;
+        }
+
+        //only the melds are resampled to the scale the references were standardized for
+        double toRaw = 1 / segmentationScale(rawImage);
+        double standardScale = Utils.standardScale(rawImage, false);
+        int padding = (int) Math.ceil(MELD_PADDING / standardScale);
+        int interpolation = standardScale > 1 ? Imgproc.INTER_LINEAR : Imgproc.INTER_AREA;
+        for (Box box : melds.melds) {
+            Rect rect = new Rect((int) Math.round(box.rect.x * toRaw), (int) Math.round(box.rect.y * toRaw),
+                    (int) Math.round(box.rect.width * toRaw), (int) Math.round(box.rect.height * toRaw));
+            MatBox crop = MatBox.fromImage(new Box(rect), rawImage, padding, frameId, images.size());
+            Mat resampled = new Mat();
+            Imgproc.resize(crop.getMat(), resampled, new Size(0, 0), standardScale, standardScale, interpolation);
+            //just a header on rawImage
+            crop.getMat().release();
+            images.add(new MatBox(rect, resampled, scaled(crop.content, standardScale, resampled), frameId,
+                    images.size()));
+        }
+        return images;
+    }
+
+    //region of resized corresponding to rect in the image it was resized from
+    private static Rect scaled(Rect rect, double scale, Mat resized) {
+        int x = (int) Math.round(rect.x * scale);
+        int y = (int) Math.round(rect.y * scale);
+        int endX = Math.min(resized.width(), (int) Math.round((rect.x + rect.width) * scale));
+        int endY = Math.min(resized.height(), (int) Math.round((rect.y + rect.height) * scale));
+        return new Rect(x, y, endX - x, endY - y);
+    }
+
+    public static MatOfPoint convertIndexesToPoints(MatOfPoint contour, MatOfInt indexes) {
+        int[] arrIndex = indexes.toArray();
+        Point[] arrContour = contour.toArray();
+        Point[] arrPoints = new Point[arrIndex.length];
+
+        for (int i=0;i<arrIndex.length;i++) {
+            arrPoints[i] = arrContour[arrIndex[i]];
+        }
+
+        MatOfPoint hull = new MatOfPoint();
+        hull.fromArray(arrPoints);
+        return hull;
+    }
+}
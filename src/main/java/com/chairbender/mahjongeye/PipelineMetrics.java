@@ -0,0 +1,230 @@
+package com.chairbender.mahjongeye;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and counters of the detection pipeline.
+ *
+ * Every meter is registered when it's first handed out (at startup, or when the references are loaded) and
+ * kept by the caller, so recording in the hot loop is just an update of the meter - no registry lookups and
+ * no tags built per frame.
+ */
+public class PipelineMetrics {
+    private static final String PREFIX = "mahjongeye.";
+
+    private final MeterRegistry registry;
+    private final DistributionSummary contours;
+    private final DistributionSummary melds;
+    private final Timer identify;
+    private final Counter homographyFound;
+    private final Counter homographyFailed;
+    private final Counter tooFewMatches;
+    private final Counter homographySkipped;
+    private final Counter prefilterKeptWinner;
+    private final Counter prefilterRemovedWinner;
+    private final Counter dedupCopied;
+    private final Counter dedupRechecked;
+    private final Counter trackedUnchanged;
+    private final Counter trackedRechecked;
+    private final Counter trackedSearched;
+    //stream whose queues are reported, null if not streaming
+    private volatile FrameStream<?> stream;
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        contours = DistributionSummary.builder(PREFIX + "contours")
+                .description("contours found in a frame")
+                .register(registry);
+        melds = DistributionSummary.builder(PREFIX + "melds")
+                .description("melds found in a frame")
+                .register(registry);
+        identify = Timer.builder(PREFIX + "identify")
+                .description("wall time identifying every meld of a frame")
+                .register(registry);
+        homographyFound = homography("found");
+        homographyFailed = homography("failed");
+        tooFewMatches = homography("too_few_matches");
+        homographySkipped = homography("skipped");
+        prefilterKeptWinner = prefilterAudit("kept_winner");
+        prefilterRemovedWinner = prefilterAudit("removed_winner");
+        dedupCopied = dedup("copied");
+        dedupRechecked = dedup("rechecked");
+        trackedUnchanged = tracked("unchanged");
+        trackedRechecked = tracked("rechecked");
+        trackedSearched = tracked("searched");
+
+        //queue depths of the stream's stages (0 or 1, since each only holds the latest frame)
+        List<String> stages = List.of("capture", "preprocess", "identify");
+        for (int i = 0; i < stages.size(); i++) {
+            int stage = i;
+            Gauge.builder(PREFIX + "stream.queued", this, metrics -> metrics.queued(stage))
+                    .description("frames waiting for the stage")
+                    .tag("stage", stages.get(i))
+                    .register(registry);
+        }
+    }
+
+    private Counter homography(String result) {
+        return Counter.builder(PREFIX + "homography")
+                .description("homographies attempted between a meld and a reference")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private Counter prefilterAudit(String result) {
+        return Counter.builder(PREFIX + "prefilter.audits")
+                .description("melds matched against every reference to check the prefilter kept the winner")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private Counter dedup(String result) {
+        return Counter.builder(PREFIX + "dedup.melds")
+                .description("melds which looked the same as another meld in the frame, so reused its label")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private Counter tracked(String result) {
+        return Counter.builder(PREFIX + "tracking.melds")
+                .description("melds of streamed frames, by how much of their identification was reused from the last frame")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     *
+     * @param stage name of the stage
+     * @return timer of the stage. Register once per stage and keep it.
+     */
+    public Timer stage(String stage) {
+        return Timer.builder(PREFIX + "stage")
+                .description("time a stage takes on a frame")
+                .tag("stage", stage)
+                .register(registry);
+    }
+
+    /**
+     *
+     * @param reference name of the reference
+     * @return timer of finding a meld's inliers with the reference. Register once per reference and keep it.
+     */
+    public Timer findInliers(String reference) {
+        return Timer.builder(PREFIX + "find.inliers")
+                .description("time matching a meld against a reference and counting the inliers")
+                .tag("reference", reference)
+                .register(registry);
+    }
+
+    public void recordContours(int count) {
+        contours.record(count);
+    }
+
+    public void recordMelds(int count) {
+        melds.record(count);
+    }
+
+    /**
+     *
+     * @param startNanos System.nanoTime() when identification of the frame started
+     */
+    public void recordIdentify(long startNanos) {
+        identify.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void homographyFound() {
+        homographyFound.increment();
+    }
+
+    public void homographyFailed() {
+        homographyFailed.increment();
+    }
+
+    public void tooFewMatches() {
+        tooFewMatches.increment();
+    }
+
+    /**
+     *
+     * @param count homographies not checked since their references couldn't have won
+     */
+    public void homographiesSkipped(int count) {
+        homographySkipped.increment(count);
+    }
+
+    /**
+     *
+     * @param keptWinner whether the audited meld's winning reference was one of the prefilter's candidates
+     */
+    public void prefilterAudited(boolean keptWinner) {
+        (keptWinner ? prefilterKeptWinner : prefilterRemovedWinner).increment();
+    }
+
+    /**
+     *
+     * @param copied melds which reused the label of an identical meld as is
+     * @param rechecked melds which were only checked against the label of a similar meld
+     */
+    public void meldsDeduplicated(int copied, int rechecked) {
+        dedupCopied.increment(copied);
+        dedupRechecked.increment(rechecked);
+    }
+
+    /**
+     *
+     * @param unchanged melds which kept the identification of a meld in the last frame
+     * @param rechecked melds which were only checked against the label of a meld in the last frame
+     * @param searched melds which were searched against every reference
+     */
+    public void meldsTracked(int unchanged, int rechecked, int searched) {
+        trackedUnchanged.increment(unchanged);
+        trackedRechecked.increment(rechecked);
+        trackedSearched.increment(searched);
+    }
+
+    /**
+     * Reports the hits, misses, evictions and size of the label cache
+     */
+    public void watch(LabelCache labelCache) {
+        FunctionCounter.builder(PREFIX + "label.cache.lookups", labelCache, LabelCache::hits)
+                .description("melds looked up in the label cache")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "label.cache.lookups", labelCache, LabelCache::misses)
+                .description("melds looked up in the label cache")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "label.cache.evictions", labelCache, LabelCache::evictions)
+                .description("labels evicted from the label cache")
+                .register(registry);
+        Gauge.builder(PREFIX + "label.cache.size", labelCache, LabelCache::size)
+                .description("labels in the label cache")
+                .register(registry);
+        Gauge.builder(PREFIX + "label.cache.bytes", labelCache, LabelCache::bytes)
+                .description("approximate heap used by the label cache")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Reports the queue depths of the stream
+     *
+     * @param stream stream to report, null when streaming stops
+     */
+    public void watch(FrameStream<?> stream) {
+        this.stream = stream;
+    }
+
+    private double queued(int stage) {
+        FrameStream<?> stream = this.stream;
+        return stream == null ? 0 : stream.stats().get(stage).queued();
+    }
+}
@@ -0,0 +1,89 @@
+package com.chairbender.mahjongeye;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Tunable parameters of the detection pipeline. These are the values shown in the
+ * UI, which are saved to / loaded from config.properties.
+ */
+public class PipelineSettings {
+    /**
+     * contours with an area at or below this are ignored
+     */
+    public final int minContourArea;
+    /**
+     * contours with an area at or above this are ignored
+     */
+    public final int maxContourArea;
+    /**
+     * epsilon used to approximate the contours
+     */
+    public final double contourApproxEpsilon;
+    /**
+     * boxes closer than this are melded together
+     */
+    public final double meldThreshold;
+
+    public PipelineSettings(int minContourArea, int maxContourArea, double contourApproxEpsilon, double meldThreshold) {
+        this.minContourArea = minContourArea;
+        this.maxContourArea = maxContourArea;
+        this.contourApproxEpsilon = contourApproxEpsilon;
+        this.meldThreshold = meldThreshold;
+    }
+
+    /**
+     *
+     * @param scale size of the image the settings are used on, relative to the (standard size) image they were
+     *              tuned on
+     * @return the settings for the image, with the areas and distances scaled to match
+     */
+    public PipelineSettings scaled(double scale) {
+        return new PipelineSettings(
+                (int) Math.round(minContourArea * scale * scale),
+                (int) Math.round(maxContourArea * scale * scale),
+                contourApproxEpsilon * scale,
+                meldThreshold * scale);
+    }
+
+    /**
+     *
+     * @param properties properties in the format of config.properties
+     * @return the settings held in properties
+     */
+    public static PipelineSettings fromProperties(Properties properties) {
+        return new PipelineSettings(
+                Integer.parseInt(properties.getProperty("minContourArea")),
+                Integer.parseInt(properties.getProperty("maxContourArea")),
+                Double.parseDouble(properties.getProperty("contourApproxEpsilon")),
+                Double.parseDouble(properties.getProperty("meldThreshold")));
+    }
+
+    /**
+     *
+     * @param propertiesFile properties file in the format of config.properties
+     * @return the settings held in the file
+     */
+    public static PipelineSettings load(Path propertiesFile) throws IOException {
+        try (InputStream input = Files.newInputStream(propertiesFile)) {
+            Properties prop = new Properties();
+            prop.load(input);
+            return fromProperties(prop);
+        }
+    }
+
+    /**
+     *
+     * @return the settings in the config.properties bundled with the app
+     */
+    public static PipelineSettings defaults() throws IOException {
+        try (InputStream input = PipelineSettings.class.getResourceAsStream("/config.properties")) {
+            Properties prop = new Properties();
+            prop.load(input);
+            return fromProperties(prop);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Narrows the references a meld's features are matched against down to the ones whose global signatures are
+ * closest to the meld's, i.e. so a red dragon is never matched against a white 1-sou.
+ *
+ * Since the prefilter could remove the reference that would have won, every so often a meld is audited by
+ * matching it against every reference anyway.
+ *
+ * Thread safe.
+ */
+public class Prefilter {
+    private final Map<ReferenceFeatures, ImageSignature> signatures = new LinkedHashMap<>();
+    private final List<PrefilterFeature> features;
+    private final int candidates;
+    private final int auditEvery;
+    private final AtomicLong melds = new AtomicLong();
+
+    /**
+     *
+     * @param references references to choose candidates from, their signatures are computed up front
+     * @param features features to compare signatures by
+     * @param candidates number of references kept for each meld, 0 to keep all of them
+     * @param auditEvery every auditEvery-th meld is audited, 0 to never audit
+     */
+    public Prefilter(Collection<ReferenceFeatures> references, List<PrefilterFeature> features, int candidates,
+                     int auditEvery) {
+        this.features = features;
+        this.candidates = candidates;
+        this.auditEvery = auditEvery;
+        if (isEnabled()) {
+            for (ReferenceFeatures reference : references) {
+                signatures.put(reference, ImageSignature.of(reference.image));
+            }
+        }
+    }
+
+    /**
+     *
+     * @return whether the prefilter removes anything, false if it would keep every reference
+     */
+    public boolean isEnabled() {
+        return candidates > 0 && !features.isEmpty();
+    }
+
+    /**
+     *
+     * @param meldImage image of the meld
+     * @return the references closest to the meld, closest first
+     */
+    public List<ReferenceFeatures> candidates(Mat meldImage) {
+        ImageSignature signature = ImageSignature.of(meldImage);
+        var distances = new LinkedHashMap<ReferenceFeatures, Double>();
+        signatures.forEach((reference, referenceSignature) ->
+                distances.put(reference, signature.distance(referenceSignature, features)));
+        return distances.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue(Comparator.naturalOrder()))
+                .limit(candidates)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     *
+     * @return whether the next meld should be audited
+     */
+    public boolean shouldAudit() {
+        return auditEvery > 0 && melds.incrementAndGet() % auditEvery == 0;
+    }
+}
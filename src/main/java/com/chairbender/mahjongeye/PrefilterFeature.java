@@ -0,0 +1,19 @@
+package com.chairbender.mahjongeye;
+
+/**
+ * Global signatures the prefilter compares melds and references by
+ */
+public enum PrefilterFeature {
+    /**
+     * Hue / saturation histogram, which tells apart i.e. red, green and blue tiles
+     */
+    HISTOGRAM,
+    /**
+     * Ratio of the longest to the shortest side. Only useful when melds are single tiles.
+     */
+    ASPECT_RATIO,
+    /**
+     * Downsampled edge map, a rough layout of the tile's markings. Sensitive to rotation.
+     */
+    EDGES
+}
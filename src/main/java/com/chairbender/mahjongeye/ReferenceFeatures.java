@@ -0,0 +1,48 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+/**
+ * A reference image along with its precomputed keypoints and descriptors. These are computed
+ * once at startup so each reference doesn't need to be featurized again for every meld it is
+ * compared against. Matchers trained on the descriptors are owned by each FeatureWorker, since
+ * they can't be shared between threads.
+ */
+public class ReferenceFeatures {
+    /**
+     * tile name of the reference (i.e. "1p")
+     */
+    public final String name;
+    /**
+     * the (standardized) reference image
+     */
+    public final Mat image;
+    /**
+     * keypoints detected in the image
+     */
+    public final MatOfKeyPoint keypoints;
+    /**
+     * descriptors of each keypoint, row i corresponds to keypoint i
+     */
+    public final Mat descriptors;
+
+    /**
+     *
+     * @param name tile name of the reference
+     * @param image reference image
+     * @param keypoints keypoints detected in image
+     * @param descriptors descriptors computed for the keypoints
+     */
+    public ReferenceFeatures(String name, Mat image, MatOfKeyPoint keypoints, Mat descriptors) {
+        this.name = name;
+        this.image = image;
+        this.keypoints = keypoints;
+        this.descriptors = descriptors;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,228 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary on-disk index of the standardized reference images along with their keypoints and descriptors,
+ * so the references don't need to be decoded, resized and featurized on every startup.
+ *
+ * Each entry is keyed by the reference's file name and stores the hash of the file's contents, so
+ * only references whose file changed need to be recomputed. The whole index is tied to a parameter
+ * key describing the detector (and standardization) that produced it - if the key doesn't match,
+ * the index is ignored.
+ */
+public class ReferenceIndex {
+    private static final int MAGIC = 0x4D4A4549; //"MJEI"
+    private static final int VERSION = 1;
+
+    /**
+     * A single reference in the index
+     */
+    public static class Entry {
+        /**
+         * tile name of the reference (i.e. "1p")
+         */
+        public final String tileName;
+        /**
+         * SHA-256 of the reference's file contents
+         */
+        public final byte[] hash;
+        /**
+         * standardized reference image
+         */
+        public final Mat image;
+        public final MatOfKeyPoint keypoints;
+        public final Mat descriptors;
+
+        public Entry(String tileName, byte[] hash, Mat image, MatOfKeyPoint keypoints, Mat descriptors) {
+            this.tileName = tileName;
+            this.hash = hash;
+            this.image = image;
+            this.keypoints = keypoints;
+            this.descriptors = descriptors;
+        }
+    }
+
+    /**
+     * Reads the index. The file is read onto the heap rather than memory mapped, since every entry is copied
+     * out of it anyway and a live mapping would stop write from replacing the file on Windows.
+     *
+     * @param indexFile file to read
+     * @param paramsKey key describing the detector parameters the caller expects
+     * @return map from reference file name to the entry for that reference. Empty if the index doesn't exist,
+     * can't be read or was built with different parameters.
+     */
+    public static Map<String, Entry> load(Path indexFile, String paramsKey) {
+        var entries = new HashMap<String, Entry>();
+        if (!Files.exists(indexFile)) {
+            return entries;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                System.out.println("Ignoring reference index " + indexFile + ", unrecognized format");
+                return entries;
+            }
+            if (!paramsKey.equals(readString(buffer))) {
+                System.out.println("Ignoring reference index " + indexFile + ", built with different detector parameters");
+                return entries;
+            }
+
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                String fileName = readString(buffer);
+                String tileName = readString(buffer);
+                byte[] hash = new byte[buffer.getInt()];
+                buffer.get(hash);
+                Mat image = readMat(buffer);
+                MatOfKeyPoint keypoints = readKeyPoints(buffer);
+                Mat descriptors = readMat(buffer);
+                entries.put(fileName, new Entry(tileName, hash, image, keypoints, descriptors));
+            }
+        } catch (IOException | RuntimeException e) {
+            //a truncated / corrupt index just means we recompute everything
+            System.out.println("Ignoring reference index " + indexFile + ", could not be read: " + e);
+            entries.clear();
+        }
+
+        return entries;
+    }
+
+    /**
+     * Writes the index, replacing any existing index file.
+     *
+     * @param indexFile file to write
+     * @param paramsKey key describing the detector parameters the entries were computed with
+     * @param entries map from reference file name to the entry for that reference
+     */
+    public static void write(Path indexFile, String paramsKey, Map<String, Entry> entries) throws IOException {
+        //write to a temp file first so a crash mid-write can't leave a corrupt index behind
+        Path absoluteIndex = indexFile.toAbsolutePath();
+        Path tempFile = Files.createTempFile(absoluteIndex.getParent(), absoluteIndex.getFileName().toString(), ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, paramsKey);
+            out.writeInt(entries.size());
+            for (var fileEntry : entries.entrySet()) {
+                Entry entry = fileEntry.getValue();
+                writeString(out, fileEntry.getKey());
+                writeString(out, entry.tileName);
+                out.writeInt(entry.hash.length);
+                out.write(entry.hash);
+                writeMat(out, entry.image);
+                writeKeyPoints(out, entry.keypoints);
+                writeMat(out, entry.descriptors);
+            }
+        }
+        Files.move(tempFile, absoluteIndex, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     *
+     * @param file file to hash
+     * @return SHA-256 of the file's contents
+     */
+    public static byte[] hash(Path file) throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file));
+        } catch (NoSuchAlgorithmException e) {
+            //every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeKeyPoints(DataOutputStream out, MatOfKeyPoint keypoints) throws IOException {
+        KeyPoint[] array = keypoints.toArray();
+        out.writeInt(array.length);
+        for (KeyPoint keypoint : array) {
+            out.writeFloat((float) keypoint.pt.x);
+            out.writeFloat((float) keypoint.pt.y);
+            out.writeFloat(keypoint.size);
+            out.writeFloat(keypoint.angle);
+            out.writeFloat(keypoint.response);
+            out.writeInt(keypoint.octave);
+            out.writeInt(keypoint.class_id);
+        }
+    }
+
+    private static MatOfKeyPoint readKeyPoints(ByteBuffer buffer) {
+        KeyPoint[] array = new KeyPoint[buffer.getInt()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = new KeyPoint(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat(),
+                    buffer.getFloat(), buffer.getInt(), buffer.getInt());
+        }
+        MatOfKeyPoint keypoints = new MatOfKeyPoint();
+        keypoints.fromArray(array);
+        return keypoints;
+    }
+
+    //only handles the 8 bit and 32 bit float mats used for images and descriptors
+    private static void writeMat(DataOutputStream out, Mat mat) throws IOException {
+        out.writeInt(mat.rows());
+        out.writeInt(mat.cols());
+        out.writeInt(mat.type());
+        if (mat.empty()) {
+            return;
+        }
+        Mat continuous = mat.isContinuous() ? mat : mat.clone();
+        if (CvType.depth(mat.type()) == CvType.CV_32F) {
+            float[] data = new float[(int) (continuous.total() * continuous.channels())];
+            continuous.get(0, 0, data);
+            for (float value : data) {
+                out.writeFloat(value);
+            }
+        } else {
+            byte[] data = new byte[(int) (continuous.total() * continuous.elemSize())];
+            continuous.get(0, 0, data);
+            out.write(data);
+        }
+    }
+
+    private static Mat readMat(ByteBuffer buffer) {
+        int rows = buffer.getInt();
+        int cols = buffer.getInt();
+        int type = buffer.getInt();
+        if (rows == 0 || cols == 0) {
+            return new Mat();
+        }
+        Mat mat = new Mat(rows, cols, type);
+        if (CvType.depth(type) == CvType.CV_32F) {
+            float[] data = new float[(int) (mat.total() * mat.channels())];
+            buffer.asFloatBuffer().get(data);
+            buffer.position(buffer.position() + data.length * Float.BYTES);
+            mat.put(0, 0, data);
+        } else {
+            byte[] data = new byte[(int) (mat.total() * mat.elemSize())];
+            buffer.get(data);
+            mat.put(0, 0, data);
+        }
+        return mat;
+    }
+}
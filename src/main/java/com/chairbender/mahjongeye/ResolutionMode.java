@@ -0,0 +1,19 @@
+package com.chairbender.mahjongeye;
+
+/**
+ * The resolution frames are processed at
+ */
+public enum ResolutionMode {
+    /**
+     * Every frame is resized to the standard size (1920 wide) before anything else, which upscales small
+     * webcam frames several times over.
+     */
+    STANDARDIZED,
+    /**
+     * Frames are segmented (threshold, contours, melds) at their native resolution, or reduced if they're
+     * larger than the segmentation max size. Only the meld images are resampled to the standard scale, so
+     * their features match the references'. The pipeline settings, which are tuned for standard size frames,
+     * are scaled to match.
+     */
+    MULTI_RESOLUTION
+}
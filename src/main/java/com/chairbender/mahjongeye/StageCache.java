@@ -0,0 +1,151 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Mat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Memoizes the results of the pipeline's stages, so when a parameter changes only the stages which read it
+ * (and the stages after them) need to run again.
+ *
+ * Only the current frame's results are kept, keyed by the stage and every parameter the stage and the stages
+ * before it read. The least recently used results are evicted once they take up more than the byte budget,
+ * and any Mats they hold are released.
+ */
+public class StageCache {
+    private final long byteBudget;
+    //in access order, so the first entry is the least recently used
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long frameId = -1;
+    //incremented on each run of the pipeline. Results used in the current run are never evicted, since the caller
+    //may still be using them.
+    private int pass;
+
+    /**
+     *
+     * @param byteBudget maximum (approximate) size of the cached results, in bytes
+     */
+    public StageCache(long byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Starts a run of the pipeline. Call before getting any stage results for the run.
+     *
+     * @param frameId identifies the frame the run is on. If it differs from the last run's frame, all the results
+     *                of the last frame are released.
+     */
+    public synchronized void startPass(long frameId) {
+        pass++;
+        if (frameId != this.frameId) {
+            this.frameId = frameId;
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                evict(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     *
+     * @param stage name of the stage
+     * @param params every parameter read by the stage and the stages before it
+     * @param compute computes the stage's result if it isn't cached. Results must be Mats, lists of Mats
+     *                or objects holding no native memory.
+     * @return the result of the stage on the current frame. Only valid until the next pass starts, since it may
+     * be evicted and released after that.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(String stage, List<?> params, Supplier<T> compute) {
+        var key = new Key(stage, params);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            T value = compute.get();
+            entry = new Entry(value, sizeOf(value));
+            entry.lastPass = pass;
+            entries.put(key, entry);
+            bytes += entry.bytes;
+            evictOverBudget();
+        }
+        entry.lastPass = pass;
+        return (T) entry.value;
+    }
+
+    private void evictOverBudget() {
+        for (Iterator<Entry> it = entries.values().iterator(); bytes > byteBudget && it.hasNext(); ) {
+            Entry entry = it.next();
+            //everything after this was used in the current pass too
+            if (entry.lastPass == pass) {
+                break;
+            }
+            evict(entry);
+            it.remove();
+        }
+    }
+
+    private void evict(Entry entry) {
+        bytes -= entry.bytes;
+        if (entry.value instanceof Mat) {
+            ((Mat) entry.value).release();
+        } else if (entry.value instanceof List) {
+            for (Object element : (List<?>) entry.value) {
+                if (element instanceof Mat) {
+                    ((Mat) element).release();
+                }
+            }
+        }
+    }
+
+    //approximate native size of the result. Results without Mats count as empty.
+    private static long sizeOf(Object value) {
+        if (value instanceof Mat) {
+            return ((Mat) value).total() * ((Mat) value).elemSize();
+        } else if (value instanceof List) {
+            long size = 0;
+            for (Object element : (List<?>) value) {
+                size += sizeOf(element);
+            }
+            return size;
+        }
+        return 0;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long bytes;
+        private int lastPass;
+
+        private Entry(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Key {
+        private final String stage;
+        private final List<?> params;
+
+        private Key(String stage, List<?> params) {
+            this.stage = stage;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return stage.equals(key.stage) && params.equals(key.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(stage, params);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.chairbender.mahjongeye;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits the image of a meld (a row of adjacent tiles, melded by Box.meldAdjacent) into the images of its tiles,
+ * so each tile can be identified on its own rather than searching for a single reference somewhere in the meld.
+ *
+ * The number of tiles is estimated from the length of the row and the aspect ratio of an upright tile (the
+ * references'). A crop no longer than a tile lying sideways is a single tile. Each cut between two tiles is then placed at the peak of the row's edge projection profile
+ * (the strength of the edges across the row, summed at each point along it) near where the cut would be if the
+ * tiles were evenly spaced. Every tile is turned upright and resized to the references' size.
+ */
+public class TileSplitter {
+    //aspect ratio (height / width) of an upright tile
+    private static final double TILE_ASPECT_RATIO = (double) Utils.REF_FIT_HEIGHT / Utils.REF_FIT_WIDTH;
+    //fraction of a tile's width on either side of an evenly spaced cut to look for the edge between tiles
+    private static final double CUT_SEARCH_FRACTION = 0.3;
+    //crops whose length / width is at most this many times an upright tile's aspect ratio are a single tile, which
+    //may be lying sideways (i.e. a called tile, or the discards of the players to the left and right)
+    private static final double SINGLE_TILE_TOLERANCE = 1.1;
+
+    private TileSplitter() {
+    }
+
+    /**
+     *
+     * @param meld meld to split
+     * @param tileArena arena to track the images of the tiles in
+     * @return images of the meld's tiles, in order along the row, each the references' size. Their boxes are
+     * the parts of the meld's box they were cut from. Just the meld if it holds a single tile.
+     */
+    public static List<MatBox> split(MatBox meld, MatArena tileArena) {
+        //the padding around the meld isn't part of any tile
+        Rect content = meld.content;
+        boolean horizontal = content.width >= content.height;
+        int length = horizontal ? content.width : content.height;
+        int across = horizontal ? content.height : content.width;
+        int count = tileCount(length, across);
+        if (count <= 1) {
+            return Collections.singletonList(meld);
+        }
+
+        List<MatBox> tiles = new ArrayList<>(count);
+        try (MatArena arena = new MatArena()) {
+            Mat image = arena.track("TileSplitter.split/content", meld.getMat().submat(content));
+            Mat gray = image;
+            if (image.channels() != 1) {
+                gray = arena.newMat("TileSplitter.split/gray");
+                Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+            }
+            //edges between tiles run across the row
+            Mat edges = arena.newMat("TileSplitter.split/edges");
+            Imgproc.Sobel(gray, edges, CvType.CV_32F, horizontal ? 1 : 0, horizontal ? 0 : 1);
+            Mat magnitude = arena.newMat("TileSplitter.split/magnitude");
+            Core.absdiff(edges, Scalar.all(0), magnitude);
+            Mat sums = arena.newMat("TileSplitter.split/profile");
+            Core.reduce(magnitude, sums, horizontal ? 0 : 1, Core.REDUCE_SUM, CvType.CV_32F);
+            float[] profile = new float[length];
+            sums.get(0, 0, profile);
+
+            int[] cuts = cuts(profile, count, across / TILE_ASPECT_RATIO);
+            Rect box = meld.rect;
+            int boxLength = horizontal ? box.width : box.height;
+            for (int i = 0; i < count; i++) {
+                Rect crop = horizontal ? new Rect(cuts[i], 0, cuts[i + 1] - cuts[i], content.height)
+                        : new Rect(0, cuts[i], content.width, cuts[i + 1] - cuts[i]);
+                int start = (int) Math.round((double) cuts[i] * boxLength / length);
+                int end = (int) Math.round((double) cuts[i + 1] * boxLength / length);
+                Rect tileBox = horizontal ? new Rect(box.x + start, box.y, end - start, box.height)
+                        : new Rect(box.x, box.y + start, box.width, end - start);
+                Mat tile = arena.track("TileSplitter.split/tile", image.submat(crop));
+                Mat normalized = tileArena.track("TileSplitter.split/normalized", normalize(tile));
+                tiles.add(new MatBox(tileBox, normalized, meld.frameId, meld.meldId));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     *
+     * @param length length of the row of tiles
+     * @param across width of the row of tiles
+     * @return number of tiles in the row
+     */
+    static int tileCount(int length, int across) {
+        if (length <= across * TILE_ASPECT_RATIO * SINGLE_TILE_TOLERANCE) {
+            return 1;
+        }
+        //every upright tile of the row is as long as a tile whose height is the row's width. Tiles lying sideways
+        //are a third longer, so a row with a single one still rounds to the right count.
+        return Math.max(1, (int) Math.round(length / (across / TILE_ASPECT_RATIO)));
+    }
+
+    /**
+     *
+     * @param profile strength of the edges across the row at each point along it
+     * @param count number of tiles in the row
+     * @param tileLength length of an upright tile in the row
+     * @return where each tile starts along the row, followed by the row's length
+     */
+    static int[] cuts(float[] profile, int count, double tileLength) {
+        int length = profile.length;
+        int[] cuts = new int[count + 1];
+        cuts[count] = length;
+        int window = (int) Math.round(tileLength * CUT_SEARCH_FRACTION);
+        for (int i = 1; i < count; i++) {
+            int even = (int) Math.round((double) i * length / count);
+            int from = Math.max(cuts[i - 1] + 1, even - window);
+            int to = Math.min(length - (count - i), even + window);
+            int cut = Math.max(from, Math.min(even, to));
+            for (int position = from; position <= to; position++) {
+                if (profile[position] > profile[cut]) {
+                    cut = position;
+                }
+            }
+            cuts[i] = cut;
+        }
+        return cuts;
+    }
+
+    //the tile upright, at the references' size
+    private static Mat normalize(Mat tile) {
+        Mat normalized = new Mat();
+        Size size = new Size(Utils.REF_FIT_WIDTH, Utils.REF_FIT_HEIGHT);
+        if (tile.width() > tile.height()) {
+            try (MatArena arena = new MatArena()) {
+                Mat upright = arena.newMat("TileSplitter.normalize/upright");
+                Core.rotate(tile, upright, Core.ROTATE_90_CLOCKWISE);
+                Imgproc.resize(upright, normalized, size, 0, 0, Imgproc.INTER_LINEAR);
+            }
+        } else {
+            Imgproc.resize(tile, normalized, size, 0, 0, Imgproc.INTER_LINEAR);
+        }
+        return normalized;
+    }
+}
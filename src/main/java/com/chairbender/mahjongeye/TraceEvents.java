@@ -0,0 +1,120 @@
+package com.chairbender.mahjongeye;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import org.opencv.core.Mat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flight recorder events tracing each frame through the pipeline. Every event carries the id of its frame
+ * (and meld, where there is one), so a recording can be turned back into a timeline of each frame.
+ *
+ * Record with i.e. -XX:StartFlightRecording=filename=trace.jfr and open it in JDK Mission Control. When
+ * nothing is recording, committing an event does nothing, and the JIT removes the event objects entirely.
+ */
+public final class TraceEvents {
+    private static final AtomicLong frameIds = new AtomicLong();
+
+    private TraceEvents() {
+    }
+
+    /**
+     *
+     * @return id for a new frame, unique across every source of frames
+     */
+    public static long nextFrameId() {
+        return frameIds.incrementAndGet();
+    }
+
+    /**
+     * Starts timing a stage
+     *
+     * @return event to commit when the stage ends
+     */
+    public static Stage stage(long frameId, String stage) {
+        Stage event = new Stage();
+        event.frameId = frameId;
+        event.stage = stage;
+        event.begin();
+        return event;
+    }
+
+    @Name("com.chairbender.mahjongeye.FrameCaptured")
+    @Label("Frame Captured")
+    @Category("Mahjong Eye")
+    public static class FrameCaptured extends Event {
+        @Label("Frame Id")
+        public long frameId;
+        @Label("Width")
+        public int width;
+        @Label("Height")
+        public int height;
+
+        /**
+         * Commits the event for the frame, timed from when the event began
+         */
+        public void commit(long frameId, Mat frame) {
+            this.frameId = frameId;
+            width = frame.width();
+            height = frame.height();
+            commit();
+        }
+    }
+
+    @Name("com.chairbender.mahjongeye.Stage")
+    @Label("Stage")
+    @Category("Mahjong Eye")
+    public static class Stage extends Event {
+        @Label("Frame Id")
+        public long frameId;
+        @Label("Stage")
+        public String stage;
+    }
+
+    @Name("com.chairbender.mahjongeye.MeldExtracted")
+    @Label("Meld Extracted")
+    @Category("Mahjong Eye")
+    public static class MeldExtracted extends Event {
+        @Label("Frame Id")
+        public long frameId;
+        @Label("Meld Id")
+        public int meldId;
+        @Label("Keypoints")
+        public long keypoints;
+    }
+
+    @Name("com.chairbender.mahjongeye.ReferenceCompared")
+    @Label("Reference Compared")
+    @Category("Mahjong Eye")
+    public static class ReferenceCompared extends Event {
+        @Label("Frame Id")
+        public long frameId;
+        @Label("Meld Id")
+        public int meldId;
+        @Label("Reference")
+        public String reference;
+        @Label("Inliers")
+        public long inliers;
+    }
+
+    @Name("com.chairbender.mahjongeye.Homography")
+    @Label("Homography Computed")
+    @Category("Mahjong Eye")
+    public static class Homography extends Event {
+        @Label("Frame Id")
+        public long frameId;
+        @Label("Meld Id")
+        public int meldId;
+        @Label("Reference")
+        public String reference;
+        @Label("Good Matches")
+        public int goodMatches;
+        @Label("Inliers")
+        public long inliers;
+        @Label("Found")
+        public boolean found;
+    }
+}
@@ -37,8 +37,8 @@ public final class Utils
 
     private static final int SRC_FIT_WIDTH = 1920;
     private static final int SRC_FIT_HEIGHT = 1080;
-    private static final int REF_FIT_WIDTH = 240;
-    private static final int REF_FIT_HEIGHT = 320;
+    static final int REF_FIT_WIDTH = 240;
+    static final int REF_FIT_HEIGHT = 320;
 
 
     /**
@@ -54,20 +54,22 @@ public final class Utils
         //that way all images would have a standard size. I think this can be done using the Size parameter
         Mat result = new Mat();
 
-        float FX,FY;
-
+        float scale = standardScale(src, isReference);
+        Imgproc.resize(src, result, new Size(0, 0), scale, scale);
+        return result;
+    }
+    /**
+     *
+     * @return the factor standardize scales src by
+     */
+    public static float standardScale(Mat src, boolean isReference) {
         if (src.width() > src.height()) {
-            FX = (float) (isReference ? REF_FIT_WIDTH : SRC_FIT_WIDTH) / src.width();
-            FY = (float) (isReference ? REF_FIT_WIDTH : SRC_FIT_WIDTH) / src.width();
+            return (float) (isReference ? REF_FIT_WIDTH : SRC_FIT_WIDTH) / src.width();
         } else {
-            FX = (float) (isReference ? REF_FIT_HEIGHT : SRC_FIT_HEIGHT) / src.height();
-            FY = (float) (isReference ? REF_FIT_HEIGHT : SRC_FIT_HEIGHT) / src.height();
+            return (float) (isReference ? REF_FIT_HEIGHT : SRC_FIT_HEIGHT) / src.height();
         }
-
-
-        Imgproc.resize(src, result, new Size(0, 0), FX, FY);
-        return result;
     }
+
     /**
      * Just like Imgcodecs.imread but scaled by a constant factor
      * @param filename
@@ -0,0 +1,175 @@
+package com.chairbender.mahjongeye;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Rect;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoxTests {
+
+	@Test
+	void meldAdjacentMatchesPairwiseMeldingOnTileRows() {
+		//rows of 3 tile melds, 2px between the tiles of a meld and a tile width between melds
+		List<Box> boxes = new ArrayList<>();
+		for (int row = 0; row < 4; row++) {
+			int x = 10;
+			for (int tile = 0; tile < 12; tile++) {
+				boxes.add(box(x, 20 + row * 80, 30, 40));
+				x += 30 + (tile % 3 == 2 ? 30 : 2);
+			}
+		}
+
+		MeldResult result = Box.meldAdjacent(boxes, 12);
+
+		assertTrue(result.didMeld);
+		assertEquals(16, result.melds.size());
+		assertEquals(rects(pairwiseMeldUntilDone(boxes, 12)), rects(result.melds));
+	}
+
+	@Test
+	void meldAdjacentRepeatsUntilNoMoreMelds() {
+		//a and b meld into a box which reaches c, even though neither a nor b are within the threshold of c
+		Box a = box(0, 0, 10, 10);
+		Box b = box(29, 0, 10, 10);
+		Box c = box(19, 28, 1, 10);
+
+		MeldResult result = Box.meldAdjacent(Arrays.asList(a, b, c), 20);
+
+		assertTrue(a.shortestDistance(c) >= 20);
+		assertTrue(b.shortestDistance(c) >= 20);
+		assertEquals(Collections.singletonList(new Rect(0, 0, 39, 38)), rects(result.melds));
+	}
+
+	@Test
+	void meldAdjacentMatchesPairwiseMeldingOnRandomBoxes() {
+		Random random = new Random(7);
+		for (int trial = 0; trial < 50; trial++) {
+			List<Box> boxes = new ArrayList<>();
+			int count = 1 + random.nextInt(60);
+			for (int i = 0; i < count; i++) {
+				boxes.add(box(random.nextInt(600), random.nextInt(400), 5 + random.nextInt(40), 5 + random.nextInt(40)));
+			}
+			double threshold = random.nextInt(20);
+
+			assertEquals(rects(connectedMeldUntilDone(boxes, threshold)), rects(Box.meldAdjacent(boxes, threshold).melds));
+		}
+	}
+
+	@Test
+	void meldAdjacentLeavesDistantBoxesAlone() {
+		List<Box> boxes = Arrays.asList(box(0, 0, 10, 10), box(100, 100, 10, 10));
+
+		MeldResult result = Box.meldAdjacent(boxes, 12);
+
+		assertFalse(result.didMeld);
+		assertEquals(rects(boxes), rects(result.melds));
+	}
+
+	@Test
+	void bufferCanBeReusedForMelding() {
+		BoxBuffer boxes = BoxBuffer.of(Arrays.asList(box(0, 0, 10, 10), box(15, 0, 10, 10), box(100, 100, 10, 10)));
+		BoxBuffer melds = new BoxBuffer(1);
+
+		assertTrue(boxes.meldAdjacent(12, melds));
+		assertEquals(Arrays.asList(new Rect(0, 0, 25, 10), new Rect(100, 100, 10, 10)), rects(melds.toBoxes()));
+
+		boxes.clear();
+		boxes.add(0, 0, 10, 10);
+		assertFalse(boxes.meldAdjacent(12, melds));
+		assertEquals(Collections.singletonList(new Rect(0, 0, 10, 10)), rects(melds.toBoxes()));
+		assertEquals(new Rect(0, 0, 10, 10), Box.meld(melds).rect);
+	}
+
+	@Test
+	void iouOfOverlappingBoxes() {
+		assertEquals(1, box(5, 5, 10, 10).iou(box(5, 5, 10, 10)));
+		//10x10 boxes sharing a 5x10 strip
+		assertEquals(50.0 / 150, box(0, 0, 10, 10).iou(box(5, 0, 10, 10)), 1e-9);
+		assertEquals(0, box(0, 0, 10, 10).iou(box(10, 0, 10, 10)));
+	}
+
+	private static Box box(int x, int y, int width, int height) {
+		return new Box(new Rect(x, y, width, height));
+	}
+
+	//sorted so results can be compared regardless of order
+	private static List<Rect> rects(Collection<Box> boxes) {
+		return boxes.stream().map(b -> b.rect)
+				.sorted(Comparator.comparingInt((Rect r) -> r.x).thenComparingInt(r -> r.y)
+						.thenComparingInt(r -> r.width).thenComparingInt(r -> r.height))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * The original pairwise, single pass implementation of meldAdjacent, repeated until it stops melding.
+	 */
+	private static List<Box> pairwiseMeldUntilDone(List<Box> boxes, double threshold) {
+		List<Box> melds = boxes;
+		while (true) {
+			Map<Integer, Box> idToBox =
+					IntStream.range(0, melds.size()).boxed()
+							.collect(Collectors.toMap(Function.identity(), melds::get));
+			Map<Integer, Set<Integer>> idToMeld =
+					IntStream.range(0, melds.size()).boxed()
+							.collect(Collectors.toMap(Function.identity(), i -> new HashSet<>(Collections.singleton(i))));
+
+			var melded = false;
+			for (var box1Entry : idToBox.entrySet()) {
+				for (var box2Entry : idToBox.entrySet()) {
+					var set1 = idToMeld.get(box1Entry.getKey());
+					if (set1.contains(box2Entry.getKey())) continue;
+
+					if (box1Entry.getValue().shortestDistance(box2Entry.getValue()) < threshold) {
+						melded = true;
+						set1.add(box2Entry.getKey());
+						set1.forEach(id -> idToMeld.put(id, set1));
+					}
+				}
+			}
+			if (!melded) {
+				return melds;
+			}
+			melds = idToMeld.values().stream().distinct()
+					.map(idset -> Box.meld(idset.stream().map(idToBox::get).collect(Collectors.toList())))
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Brute force melding of the connected groups of boxes, repeated until it stops melding.
+	 */
+	private static List<Box> connectedMeldUntilDone(List<Box> boxes, double threshold) {
+		List<Box> melds = boxes;
+		while (true) {
+			int[] group = new int[melds.size()];
+			Arrays.fill(group, -1);
+			List<List<Box>> groups = new ArrayList<>();
+			for (int start = 0; start < melds.size(); start++) {
+				if (group[start] != -1) continue;
+				List<Box> members = new ArrayList<>();
+				Deque<Integer> toVisit = new ArrayDeque<>(Collections.singleton(start));
+				group[start] = groups.size();
+				while (!toVisit.isEmpty()) {
+					int i = toVisit.pop();
+					members.add(melds.get(i));
+					for (int j = 0; j < melds.size(); j++) {
+						if (group[j] == -1 && melds.get(i).shortestDistance(melds.get(j)) < threshold) {
+							group[j] = groups.size();
+							toVisit.push(j);
+						}
+					}
+				}
+				groups.add(members);
+			}
+			if (groups.size() == melds.size()) {
+				return melds;
+			}
+			melds = groups.stream().map(Box::meld).collect(Collectors.toList());
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.chairbender.mahjongeye;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BranchAndBoundTests {
+
+	@Test
+	void stopsOnceNoReferenceCanBeatTheBest() {
+		//reference -> good matches, inliers
+		Map<String, int[]> references = Map.of(
+				"1p", new int[]{40, 30},
+				"2p", new int[]{35, 5},
+				"3p", new int[]{25, 20},
+				"4p", new int[]{12, 10});
+
+		List<String> checked = branchAndBound(references, new Identifier.RecentWins(10));
+
+		//3p and 4p have fewer good matches than 1p's 30 inliers
+		assertEquals(List.of("1p", "2p"), checked);
+	}
+
+	@Test
+	void checksUntilTheBestBeatsTheNextGoodMatches() {
+		Map<String, int[]> references = Map.of(
+				"1p", new int[]{40, 8},
+				"2p", new int[]{35, 30},
+				"3p", new int[]{31, 31},
+				"4p", new int[]{30, 29});
+
+		List<String> checked = branchAndBound(references, new Identifier.RecentWins(10));
+
+		//4p's 30 good matches can't beat 3p's 31 inliers
+		assertEquals(List.of("1p", "2p", "3p"), checked);
+	}
+
+	@Test
+	void skipsReferencesWithTooFewMatches() {
+		Map<String, int[]> references = Map.of(
+				"1p", new int[]{4, 4},
+				"2p", new int[]{2, 2});
+
+		assertEquals(List.of(), branchAndBound(references, new Identifier.RecentWins(10)));
+	}
+
+	@Test
+	void tiesGoToTheRecentWinner() {
+		Map<String, int[]> references = Map.of(
+				"1p", new int[]{20, 15},
+				"2p", new int[]{20, 18});
+		var recentWins = new Identifier.RecentWins(10);
+		recentWins.add("2p");
+
+		//2p is checked first, and 1p's 20 good matches could still beat its 18 inliers
+		assertEquals(List.of("2p", "1p"), branchAndBound(references, recentWins));
+
+		recentWins.add("1p");
+		recentWins.add("1p");
+		assertEquals(List.of("1p", "2p"), branchAndBound(references, recentWins));
+	}
+
+	@Test
+	void recentWinsOnlyCountsTheWindow() {
+		var recentWins = new Identifier.RecentWins(3);
+		recentWins.add("1p");
+		recentWins.add("2p");
+		recentWins.add("2p");
+		assertEquals(1, recentWins.count("1p"));
+		assertEquals(2, recentWins.count("2p"));
+
+		recentWins.add("3p");
+		assertEquals(0, recentWins.count("1p"));
+		assertEquals(2, recentWins.count("2p"));
+		assertEquals(1, recentWins.count("3p"));
+		assertEquals(0, recentWins.count("4p"));
+	}
+
+	//names of the references checked, in order
+	private static List<String> branchAndBound(Map<String, int[]> references, Identifier.RecentWins recentWins) {
+		List<String> checked = new ArrayList<>();
+		Identifier.branchAndBound(new ArrayList<>(references.keySet()),
+				name -> references.get(name)[0],
+				recentWins::count,
+				name -> {
+					checked.add(name);
+					return (long) references.get(name)[1];
+				},
+				inliers -> inliers);
+		return checked;
+	}
+}
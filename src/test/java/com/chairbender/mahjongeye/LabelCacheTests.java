@@ -0,0 +1,80 @@
+package com.chairbender.mahjongeye;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LabelCacheTests {
+	private static final long HASH = 0x0F0F_3C3C_A5A5_5A5AL;
+	private static final long ROTATED_HASH = 0x1234_5678_9ABC_DEF0L;
+
+	@Test
+	void exactHashHits() {
+		LabelCache cache = cache(4);
+		cache.put(new long[]{HASH, ROTATED_HASH}, "1p", 20);
+
+		LabelCache.Entry entry = cache.get(new long[]{HASH, ROTATED_HASH});
+
+		assertNotNull(entry);
+		assertEquals("1p", entry.label);
+		assertEquals(20, entry.inlierCount);
+		assertEquals(1, cache.hits());
+		assertEquals(0, cache.misses());
+	}
+
+	@Test
+	void hashWithinRadiusHits() {
+		LabelCache cache = cache(4);
+		cache.put(new long[]{HASH, ROTATED_HASH}, "1p", 20);
+
+		//4 bits flipped
+		LabelCache.Entry entry = cache.get(new long[]{HASH ^ 0b1011_0001L, ROTATED_HASH ^ -1L});
+
+		assertNotNull(entry);
+		assertEquals("1p", entry.label);
+	}
+
+	@Test
+	void hashOutsideRadiusMisses() {
+		LabelCache cache = cache(4);
+		cache.put(new long[]{HASH, ROTATED_HASH}, "1p", 20);
+
+		//5 bits flipped
+		assertNull(cache.get(new long[]{HASH ^ 0b1011_0011L, ROTATED_HASH ^ -1L}));
+		assertEquals(0, cache.hits());
+		assertEquals(1, cache.misses());
+	}
+
+	@Test
+	void closestHashWins() {
+		LabelCache cache = cache(4);
+		cache.put(new long[]{HASH, 0}, "1p", 20);
+		cache.put(new long[]{HASH ^ 0b1111L, 0}, "2p", 20);
+
+		assertEquals("2p", cache.get(new long[]{HASH ^ 0b0111L, -1L}).label);
+		assertEquals("1p", cache.get(new long[]{HASH ^ 0b0001L, -1L}).label);
+	}
+
+	@Test
+	void upsideDownMeldHitsThroughItsRotatedHash() {
+		LabelCache cache = cache(4);
+		//remembered upright
+		cache.put(new long[]{HASH, ROTATED_HASH}, "1p", 20);
+
+		//the same tile upside down has the hashes the other way around
+		LabelCache.Entry entry = cache.get(new long[]{ROTATED_HASH, HASH});
+		assertNotNull(entry);
+		assertEquals("1p", entry.label);
+
+		//and within the radius of them
+		entry = cache.get(new long[]{ROTATED_HASH, HASH ^ 0b11L});
+		assertNotNull(entry);
+		assertEquals("1p", entry.label);
+	}
+
+	private static LabelCache cache(int radius) {
+		return new LabelCache(16, Duration.ofMinutes(30), radius);
+	}
+}
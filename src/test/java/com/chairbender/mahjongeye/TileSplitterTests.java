@@ -0,0 +1,74 @@
+package com.chairbender.mahjongeye;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Rect;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TileSplitterTests {
+	//an upright tile is 30 wide and 40 tall, lying sideways it's 40 wide and 30 tall
+	private static final int WIDTH = 30;
+	private static final int HEIGHT = 40;
+
+	@Test
+	void uprightRowIsSplitIntoEachTile() {
+		assertEquals(3, TileSplitter.tileCount(3 * WIDTH, HEIGHT));
+		assertEquals(2, TileSplitter.tileCount(2 * WIDTH, HEIGHT));
+
+		float[] profile = profile(3 * WIDTH, WIDTH, 2 * WIDTH);
+		assertArrayEquals(new int[]{0, WIDTH, 2 * WIDTH, 3 * WIDTH}, TileSplitter.cuts(profile, 3, WIDTH));
+	}
+
+	@Test
+	void sidewaysTileIsASingleTile() {
+		assertEquals(1, TileSplitter.tileCount(HEIGHT, WIDTH));
+		//a little padding around it doesn't change that
+		assertEquals(1, TileSplitter.tileCount(HEIGHT + 4, WIDTH + 2));
+	}
+
+	@Test
+	void rowWithACalledTileIsCutAtTheEdgesBetweenTiles() {
+		//chi with the called tile lying sideways in the middle
+		int length = WIDTH + HEIGHT + WIDTH;
+		assertEquals(3, TileSplitter.tileCount(length, HEIGHT));
+		float[] profile = profile(length, WIDTH, WIDTH + HEIGHT);
+		assertArrayEquals(new int[]{0, WIDTH, WIDTH + HEIGHT, length}, TileSplitter.cuts(profile, 3, WIDTH));
+
+		//pon with the called tile lying sideways on the left
+		assertEquals(3, TileSplitter.tileCount(length, HEIGHT));
+		profile = profile(length, HEIGHT, HEIGHT + WIDTH);
+		assertArrayEquals(new int[]{0, HEIGHT, HEIGHT + WIDTH, length}, TileSplitter.cuts(profile, 3, WIDTH));
+	}
+
+	@Test
+	void paddingAroundTheCropIsNotCounted() {
+		//2 tiles cropped with 5px of padding, which would be short enough to be a single tile
+		Rect box = new Rect(100, 100, 2 * WIDTH, HEIGHT);
+		Rect content = MatBox.content(box, new Rect(95, 95, 2 * WIDTH + 10, HEIGHT + 10));
+		assertEquals(new Rect(5, 5, 2 * WIDTH, HEIGHT), content);
+		assertEquals(2, TileSplitter.tileCount(content.width, content.height));
+
+		//13 tiles, which would be cut into 11
+		box = new Rect(100, 100, 13 * 50, 67);
+		content = MatBox.content(box, new Rect(95, 95, 13 * 50 + 10, 67 + 10));
+		assertEquals(13, TileSplitter.tileCount(content.width, content.height));
+
+		//padding cut off by the edge of the image
+		box = new Rect(2, 0, 3 * WIDTH, HEIGHT);
+		content = MatBox.content(box, new Rect(0, 0, 3 * WIDTH + 7, HEIGHT + 5));
+		assertEquals(new Rect(2, 0, 3 * WIDTH, HEIGHT), content);
+		assertEquals(3, TileSplitter.tileCount(content.width, content.height));
+	}
+
+	//profile of a row with strong edges at each of the edges and weak noise elsewhere
+	private static float[] profile(int length, int... edges) {
+		float[] profile = new float[length];
+		for (int i = 0; i < length; i++) {
+			profile[i] = i % 7;
+		}
+		for (int edge : edges) {
+			profile[edge] = 100;
+		}
+		return profile;
+	}
+}